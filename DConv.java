@@ -4,6 +4,7 @@ import kumotechmadlab.sffreader.*;
 import javax.imageio.*;
 import java.awt.image.*;
 import java.io.*;
+import java.util.*;
 import java.util.zip.*;
 
 //Data converter
@@ -60,4 +61,377 @@ public class DConv {
 		System.arraycopy(data, end, newdata, start + plte.length, data.length - end);
 		return fromPNG(newdata);
 	}
+	
+	//Decode SFFv2 RLE8 data[] (from index offs) to ARGB8888 dst[] (from index dstoffs, count pixels)
+	//using palette pal[]. Runs are filled at once. Decoding stops when count pixels are written
+	//or data[] ends. Returns written pixel count.
+	public static int rle8(byte data[], int offs, int pal[], int dst[], int dstoffs, int count) {
+		int p = dstoffs;
+		int end = dstoffs + count;
+		int i = offs;
+		while(i < data.length && p < end) {
+			int e = Byte.toUnsignedInt(data[i++]);
+			int rl = 1; //always assume runlength = 1
+			//0b01xxxxxx is runlength, next octet is colour
+			if((e & 0xc0) == 0x40) {
+				if(i >= data.length) { break; } //runlength without colour
+				rl = e - 0x40;
+				e = Byte.toUnsignedInt(data[i++]);
+			}
+			int n = Math.min(rl, end - p);
+			if(n == 1) {
+				dst[p] = pal[e];
+			} else if(n > 1) {
+				Arrays.fill(dst, p, p + n, pal[e]);
+			}
+			p += n;
+		}
+		return p - dstoffs;
+	}
+	
+	//Decode PCX RLE data[] (from index offs) to ARGB8888 dst[] (w * h pixels) using palette pal[].
+	//Each line is scanline octets long, octets beyond w are padding and skipped.
+	//Runs are filled at once, runs crossing line end are continued on next line.
+	public static void pcx(byte data[], int offs, int pal[], int dst[], int w, int h, int scanline) {
+		int sl = Math.max(scanline, 1); //zero length line advances line every pixel
+		int x = 0;
+		int y = 0;
+		int linetop = 0; //index of current line top in dst[]
+		int i = offs;
+		while(i < data.length && y < h) {
+			int e = Byte.toUnsignedInt(data[i++]);
+			int rl = 1; //assume runlength is 1 when octet is not runlength
+			//0b11xxxxxx is runlength, next octet is colour
+			if(e >= 0xc0) {
+				if(i >= data.length) { break; } //runlength without colour
+				rl = e - 0xc0;
+				e = Byte.toUnsignedInt(data[i++]);
+			}
+			while(rl > 0) {
+				int n = Math.min(rl, sl - x); //part of run in current line
+				int visend = Math.min(x + n, w); //pixels after w are padding
+				if(x < visend) {
+					Arrays.fill(dst, linetop + x, linetop + visend, pal[e]);
+				}
+				x += n;
+				rl -= n;
+				if(x >= sl) {
+					x = 0;
+					y++;
+					linetop += w;
+					if(y >= h) { break; } //image is ready
+				}
+			}
+		}
+	}
+	
+	//Write n pixels of colour c at source (x, y) into clipped and mirrored dst[].
+	//dst[] has source rectangle (cx, cy, cw, ch), flipped horizontally if fh, vertically if fv.
+	//Run must not cross line end, pixels out of rectangle are dropped.
+	static void clipFill(int dst[], int x, int y, int n, int c,
+		int cx, int cy, int cw, int ch, boolean fh, boolean fv) {
+		if(y < cy || y >= cy + ch) { return; }
+		int a = Math.max(x, cx);
+		int b = Math.min(x + n, cx + cw);
+		if(a >= b) { return; }
+		int top = (fv ? ch - 1 - (y - cy) : y - cy) * cw;
+		if(fh) {
+			Arrays.fill(dst, top + cx + cw - b, top + cx + cw - a, c);
+		} else {
+			Arrays.fill(dst, top + a - cx, top + b - cx, c);
+		}
+	}
+	
+	//rle8() for w x h image but only source rectangle (cx, cy, cw, ch) is written to dst[]
+	//(cw * ch pixels), mirrored if fh / fv. Lines below rectangle are not decoded.
+	public static void rle8Clip(byte data[], int offs, int pal[], int dst[], int w, int h,
+		int cx, int cy, int cw, int ch, boolean fh, boolean fv) {
+		int x = 0;
+		int y = 0;
+		int endy = Math.min(h, cy + ch);
+		int i = offs;
+		while(i < data.length && y < endy) {
+			int e = Byte.toUnsignedInt(data[i++]);
+			int rl = 1; //always assume runlength = 1
+			//0b01xxxxxx is runlength, next octet is colour
+			if((e & 0xc0) == 0x40) {
+				if(i >= data.length) { break; } //runlength without colour
+				rl = e - 0x40;
+				e = Byte.toUnsignedInt(data[i++]);
+			}
+			//Split run at line ends
+			while(rl > 0 && y < endy) {
+				int n = Math.min(rl, w - x);
+				clipFill(dst, x, y, n, pal[e], cx, cy, cw, ch, fh, fv);
+				x += n;
+				rl -= n;
+				if(x >= w) {
+					x = 0;
+					y++;
+				}
+			}
+		}
+	}
+	
+	//pcx() for w x h image but only source rectangle (cx, cy, cw, ch) is written to dst[]
+	//(cw * ch pixels), mirrored if fh / fv. Lines below rectangle are not decoded.
+	public static void pcxClip(byte data[], int offs, int pal[], int dst[], int w, int h, int scanline,
+		int cx, int cy, int cw, int ch, boolean fh, boolean fv) {
+		int sl = Math.max(scanline, 1); //zero length line advances line every pixel
+		int x = 0;
+		int y = 0;
+		int endy = Math.min(h, cy + ch);
+		int i = offs;
+		while(i < data.length && y < endy) {
+			int e = Byte.toUnsignedInt(data[i++]);
+			int rl = 1; //assume runlength is 1 when octet is not runlength
+			//0b11xxxxxx is runlength, next octet is colour
+			if(e >= 0xc0) {
+				if(i >= data.length) { break; } //runlength without colour
+				rl = e - 0xc0;
+				e = Byte.toUnsignedInt(data[i++]);
+			}
+			while(rl > 0) {
+				int n = Math.min(rl, sl - x); //part of run in current line
+				int visend = Math.min(x + n, w); //pixels after w are padding
+				if(x < visend) {
+					clipFill(dst, x, y, visend - x, pal[e], cx, cy, cw, ch, fh, fv);
+				}
+				x += n;
+				rl -= n;
+				if(x >= sl) {
+					x = 0;
+					y++;
+					if(y >= endy) { break; } //clip is ready
+				}
+			}
+		}
+	}
+	
+	//Convert RAW 8 (pal[] index), 24 (RGB888) or 32 (RGBA8888) bit pixels of w pixels wide image
+	//to ARGB8888, only source rectangle (cx, cy, cw, ch) is read and written to dst[]
+	//(cw * ch pixels), mirrored if fh / fv. Pixels not in data[] are left as is.
+	public static void rawClip(byte data[], int cdep, int pal[], int dst[], int w,
+		int cx, int cy, int cw, int ch, boolean fh, boolean fv) {
+		int oct = cdep / 8; //octet per pixel
+		for(int y = 0; y < ch; y++) {
+			int top = (fv ? ch - 1 - y : y) * cw;
+			long src = ( (long)(cy + y) * w + cx) * oct;
+			for(int x = 0; x < cw; x++, src += oct) {
+				if(src + oct > data.length) { return; } //data ended
+				int i = (int)src;
+				int c;
+				if(cdep == 8) {
+					c = pal[Byte.toUnsignedInt(data[i])];
+				} else if(cdep == 24) {
+					c = (int)C.b2uibe(data, i, 3) | 0xff000000;
+				} else {
+					c = (int)C.b2uibe(data, i, 3) | (Byte.toUnsignedInt(data[i + 3]) << 24);
+				}
+				dst[top + (fh ? cw - 1 - x : x)] = c;
+			}
+		}
+	}
+	
+	//Copy source rectangle (cx, cy, cw, ch) of ARGB8888 src[] (w pixels wide) to dst[]
+	//(cw * ch pixels), mirrored if fh / fv.
+	public static void clip(int src[], int w, int dst[], int cx, int cy, int cw, int ch, boolean fh, boolean fv) {
+		for(int y = 0; y < ch; y++) {
+			int s = (cy + y) * w + cx;
+			int top = (fv ? ch - 1 - y : y) * cw;
+			if(!fh) {
+				System.arraycopy(src, s, dst, top, cw);
+			} else {
+				for(int x = 0; x < cw; x++) {
+					dst[top + cw - 1 - x] = src[s + x];
+				}
+			}
+		}
+	}
+	
+	//rle8() but writes colour index to dst[] instead of ARGB8888
+	public static int rle8Index(byte data[], int offs, byte dst[], int dstoffs, int count) {
+		int p = dstoffs;
+		int end = dstoffs + count;
+		int i = offs;
+		while(i < data.length && p < end) {
+			byte e = data[i++];
+			int rl = 1;
+			if((e & 0xc0) == 0x40) {
+				if(i >= data.length) { break; }
+				rl = e - 0x40;
+				e = data[i++];
+			}
+			int n = Math.min(rl, end - p);
+			if(n == 1) {
+				dst[p] = e;
+			} else if(n > 1) {
+				Arrays.fill(dst, p, p + n, e);
+			}
+			p += n;
+		}
+		return p - dstoffs;
+	}
+	
+	//pcx() but writes colour index to dst[] instead of ARGB8888
+	public static void pcxIndex(byte data[], int offs, byte dst[], int w, int h, int scanline) {
+		int sl = Math.max(scanline, 1);
+		int x = 0;
+		int y = 0;
+		int linetop = 0;
+		int i = offs;
+		while(i < data.length && y < h) {
+			byte e = data[i++];
+			int rl = 1;
+			if((e & 0xc0) == 0xc0) {
+				if(i >= data.length) { break; }
+				rl = (e & 0xff) - 0xc0;
+				e = data[i++];
+			}
+			while(rl > 0) {
+				int n = Math.min(rl, sl - x);
+				int visend = Math.min(x + n, w);
+				if(x < visend) {
+					Arrays.fill(dst, linetop + x, linetop + visend, e);
+				}
+				x += n;
+				rl -= n;
+				if(x >= sl) {
+					x = 0;
+					y++;
+					linetop += w;
+					if(y >= h) { break; }
+				}
+			}
+		}
+	}
+	
+	//Make IndexColorModel for 8 bit indexed image from ARGB8888 palette
+	public static IndexColorModel toColorModel(int pal[]) {
+		int n = Math.min(pal.length, 256);
+		if(n == 0) {
+			return new IndexColorModel(8, 1, new int[1], 0, true, -1, DataBuffer.TYPE_BYTE);
+		}
+		return new IndexColorModel(8, n, pal, 0, true, -1, DataBuffer.TYPE_BYTE);
+	}
+	
+	//Convert ACT palette data[] (256 RGB888) to ARGB8888 int[], index 0 is transparent
+	public static int[] fromACT(byte data[]) throws EOFException {
+		if(data.length < 768) {
+			throw new EOFException("ACT palette is shorter than 768 octets!");
+		}
+		int pal[] = new int[256];
+		for(int i = 0; i < 256; i++) {
+			pal[i] = (int)C.b2uibe(data, i * 3, 3);
+			if(i != 0) { pal[i] += 0xff000000; } //alpha=255 except index 0
+		}
+		return pal;
+	}
+	
+	//Decode SFFv2 LZ5 data[] (from index offs) to colour index dst[] (from index dstoffs, count pixels)
+	//Data is packets with control octet before every 8 packets, bit n of control octet
+	//is 1 when packet n is LZ (copy from already decoded pixels), 0 when RLE.
+	//Returns written pixel count, -1 if data points out of decoded pixels.
+	public static int lz5Index(byte data[], int offs, byte dst[], int dstoffs, int count) {
+		int p = dstoffs;
+		int end = dstoffs + count;
+		int i = offs;
+		if(i >= data.length) { return 0; }
+		int ctrl = Byte.toUnsignedInt(data[i++]); //control octet
+		int ctrlbit = 0;
+		int recycled = 0; //recycled bits of short LZ packets
+		int recycledbits = 0;
+		while(p < end && i < data.length) {
+			int d = Byte.toUnsignedInt(data[i++]);
+			if((ctrl & (1 << ctrlbit) ) != 0) {
+				//LZ packet
+				int len;
+				int dist;
+				if((d & 0x3f) == 0) {
+					//Long LZ: 10 bit distance (top 2 bits in this octet) and 8 bit length
+					if(i + 1 >= data.length) { break; }
+					dist = ( (d << 2) | Byte.toUnsignedInt(data[i++]) ) + 1;
+					len = Byte.toUnsignedInt(data[i++]) + 3;
+				} else {
+					//Short LZ: 6 bit length, top 2 bits are recycled for later distance
+					recycled |= (d & 0xc0) >> recycledbits;
+					recycledbits += 2;
+					len = (d & 0x3f) + 1;
+					if(recycledbits < 8) {
+						if(i >= data.length) { break; }
+						dist = Byte.toUnsignedInt(data[i++]) + 1;
+					} else {
+						//4 sets of recycled bits make distance
+						dist = recycled + 1;
+						recycled = 0;
+						recycledbits = 0;
+					}
+				}
+				if(dist > p - dstoffs) { return -1; }
+				len = Math.min(len, end - p);
+				//Copy one by one, source and destination may overlap
+				for(int k = 0; k < len; k++) {
+					dst[p] = dst[p - dist];
+					p++;
+				}
+			} else {
+				//RLE packet: 3 bit length and 5 bit colour, length 0 means next octet + 8
+				int len = d >> 5;
+				if(len == 0) {
+					if(i >= data.length) { break; }
+					len = Byte.toUnsignedInt(data[i++]) + 8;
+				}
+				len = Math.min(len, end - p);
+				Arrays.fill(dst, p, p + len, (byte)(d & 0x1f) );
+				p += len;
+			}
+			ctrlbit++;
+			if(ctrlbit >= 8) {
+				if(i >= data.length) { break; }
+				ctrl = Byte.toUnsignedInt(data[i++]);
+				ctrlbit = 0;
+			}
+		}
+		return p - dstoffs;
+	}
+	
+	//Convert colour index idx[] to ARGB8888 dst[] using pal[] as lookup table
+	public static void expand(byte idx[], int pal[], int dst[], int dstoffs) {
+		for(int i = 0; i < idx.length; i++) {
+			dst[dstoffs + i] = pal[idx[i] & 0xff];
+		}
+	}
+	
+	//Decode SFFv2 RLE5 data[] (from index offs) to colour index dst[] (from index dstoffs, count pixels)
+	//Each packet is: run length octet, data length octet (bit 7: colour octet follows,
+	//bit 0-6: count of data octets), optional 8 bit colour and data octets.
+	//Data octet holds 3 bit run length and 5 bit colour, fields are octet aligned
+	//so they are unpacked with shift and mask while streaming.
+	//Returns written pixel count.
+	public static int rle5Index(byte data[], int offs, byte dst[], int dstoffs, int count) {
+		int p = dstoffs;
+		int end = dstoffs + count;
+		int i = offs;
+		while(p < end && i + 1 < data.length) {
+			int rl = Byte.toUnsignedInt(data[i++]) + 1; //run length of first colour
+			int dl = Byte.toUnsignedInt(data[i++]);
+			byte c = 0; //first colour is 0 if colour octet is omitted
+			if((dl & 0x80) != 0) {
+				if(i >= data.length) { break; }
+				c = data[i++];
+			}
+			dl &= 0x7f;
+			int n = Math.min(rl, end - p);
+			Arrays.fill(dst, p, p + n, c);
+			p += n;
+			//following data octets, 3 bit run length (+1) and 5 bit colour
+			for(; dl > 0 && p < end && i < data.length; dl--) {
+				int e = Byte.toUnsignedInt(data[i++]);
+				n = Math.min( (e >> 5) + 1, end - p);
+				Arrays.fill(dst, p, p + n, (byte)(e & 0x1f) );
+				p += n;
+			}
+		}
+		return p - dstoffs;
+	}
 }
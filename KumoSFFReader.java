@@ -1,18 +1,66 @@
 package kumotechmadlab.sffreader;
 
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
 import java.awt.image.*;
 import java.awt.*;
 import javax.imageio.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.zip.*;
 import kumotechmadlab.sffreader.*;
 
-/** SFF Reader class */
+/**
+	SFF Reader class.
+	Information getters, data getters and ConvertImage() may be called from multiple threads
+	at once on the same reader, data is read with positional reads and no shared file pointer.
+	Data is read through SFFSource, so sff can be in file, memory or archive.
+*/
 public class KumoSFFReader {
-	RandomAccessFile sff;
-	SFFElements sffinfo[];
-	SFFPaletteElement palinfo[];
-	int SharedPal[] = null;
+	SFFSource src; //Source of sff data
+	ByteBuffer sffmap = null; //Whole data (mapping or memory) from src, null if not available
+	String srcname; //File path or source kind, for JFR events
+	//Image and palette information, stored as packed int[] (one record per stride octets)
+	//instead of one object per image for less memory and cache friendly access.
+	int sprtab[]; //Image records, see S_* for fields
+	int paltab[] = new int[0]; //Palette records, see P_* for fields, empty in sffv1
+	int imgcount = 0;
+	int palcount = 0;
+	//Image record fields
+	final static int S_GRP = 0; //Group number
+	final static int S_INO = 1; //Image number
+	final static int S_X = 2; //Center x
+	final static int S_Y = 3; //Center y
+	final static int S_LINK = 4; //Link index
+	final static int S_OFFSET = 5; //Image data offset in file
+	final static int S_LENGTH = 6; //Image data length
+	final static int S_WIDTH = 7; //Image width (sffv2)
+	final static int S_HEIGHT = 8; //Image height (sffv2)
+	final static int S_TYPE = 9; //Image format type (sffv2)
+	final static int S_DEPTH = 10; //Colour depth (sffv2)
+	final static int S_PAL = 11; //Palette index (sffv2)
+	final static int S_FLAGS = 12; //Flags (sffv2), shared palette mode 1 or 0 (sffv1)
+	final static int S_STRIDE = 13;
+	//Palette record fields
+	final static int P_GRP = 0; //Palette group number
+	final static int P_NO = 1; //Palette item number
+	final static int P_NUMCOLS = 2; //Colour count
+	final static int P_LINK = 3; //Link index
+	final static int P_OFFSET = 4; //Palette data offset in file
+	final static int P_LENGTH = 5; //Palette data length
+	final static int P_STRIDE = 6;
+	SFFNumberIndex numindex; //group / image number lookup table
+	//Parsed palette cache, indexed by palette index (sffv2) or image index (sffv1)
+	AtomicReferenceArray<int[]> palcache;
+	final static int NOPAL[] = new int[0]; //Marks "no palette" in palcache
+	final static int V1_WINDOW = 32768; //Read ahead window size for sffv1 subheader chain
+	volatile SFFCache imgcache = null; //Decoded image cache, null if disabled
+	boolean sharedpal = false; //true to keep palettes in imgcache instead of palcache (SFFReaderPool)
+	int imghash[] = null; //CRC32 of image data per image, from sidecar index or made when saving it
+	volatile int imgalias[] = null; //First image having the same data per image, null if not deduplicated
+	volatile int palalias[] = null; //First palette having the same data per palette, null if not deduplicated
 	final static String VER = "v2.1-1.6.1-Nov42023";
 	final byte IDENT[] = {'E', 'l', 'e', 'c', 'b', 'y', 't', 'e', 'S', 'p', 'r', 0};
 	final byte VER_V1[] = {0, 1, 0, 1};
@@ -49,22 +97,160 @@ public class KumoSFFReader {
 		@throws EOFException when SFF is shorter than expected
 	*/
 	public KumoSFFReader(String filename) throws IOException, SFFDecodeException {
-		sff = new RandomAccessFile(filename, "r"); //open as binary read
-		initSFF();
+		this(new File(filename), false);
 	}
 	
 	/**
 		KumoSFFReader() but accepts java.io.File for SFF file pointer.
 	*/
 	public KumoSFFReader(File target) throws IOException, SFFDecodeException {
-		sff = new RandomAccessFile(target, "r"); //open as binary read
-		initSFF();
+		this(target, false);
+	}
+	
+	/**
+		Open SFF and cache some basic information.
+		If mapped is true, whole sff is memory mapped and image and palette data
+		are copied from the mapping instead of seek and read. Decoders still work on that copy,
+		only GetRawImageBuffer() returns data without copying.
+		@param filename SFF filename to open
+		@param mapped true to use memory mapped mode
+		@throws IOException when IO Error occured
+		@throws SFFDecodeException when SFF was bad
+		@throws EOFException when SFF is shorter than expected
+	*/
+	public KumoSFFReader(String filename, boolean mapped) throws IOException, SFFDecodeException {
+		this(new File(filename), mapped);
+	}
+	
+	/**
+		KumoSFFReader(String, boolean) but accepts java.io.File for SFF file pointer.
+	*/
+	public KumoSFFReader(File target, boolean mapped) throws IOException, SFFDecodeException {
+		this(target, null, mapped);
+	}
+	
+	/**
+		Open SFF using sidecar index file.
+		Sidecar index keeps parsed image and palette information of the sff. If sidecar exists
+		and made for the same sff (same size, modified time and header), sff is not parsed.
+		Otherwise sff is parsed and sidecar is (re)written. Failing to read or write sidecar
+		does not fail opening.
+		@param filename SFF filename to open
+		@param sidecar sidecar index filename, null to not use sidecar
+		@param mapped true to use memory mapped mode
+		@throws IOException when IO Error occured
+		@throws SFFDecodeException when SFF was bad
+		@throws EOFException when SFF is shorter than expected
+	*/
+	public KumoSFFReader(String filename, String sidecar, boolean mapped)
+		throws IOException, SFFDecodeException {
+		this(new File(filename), sidecar == null ? null : new File(sidecar), mapped);
+	}
+	
+	/**
+		KumoSFFReader(String, String, boolean) but accepts java.io.File for file pointers.
+	*/
+	public KumoSFFReader(File target, File sidecar, boolean mapped)
+		throws IOException, SFFDecodeException {
+		open(new SFFFileSource(target, mapped), target, sidecar);
+	}
+	
+	/**
+		Open SFF in memory, data is not copied.
+		@param data sff data
+		@throws IOException when IO Error occured
+		@throws SFFDecodeException when SFF was bad
+		@throws EOFException when SFF is shorter than expected
+	*/
+	public KumoSFFReader(byte data[]) throws IOException, SFFDecodeException {
+		this(new SFFBufferSource(data) );
+	}
+	
+	/**
+		Open SFF in ByteBuffer (from position to limit), data is not copied.
+		@param data sff data
+		@throws IOException when IO Error occured
+		@throws SFFDecodeException when SFF was bad
+		@throws EOFException when SFF is shorter than expected
+	*/
+	public KumoSFFReader(ByteBuffer data) throws IOException, SFFDecodeException {
+		this(new SFFBufferSource(data) );
+	}
+	
+	/**
+		Open SFF by reading whole stream into memory, stream is not closed.
+		@param in stream having sff data, e.g. entry of zip file
+		@throws IOException when IO Error occured
+		@throws SFFDecodeException when SFF was bad
+		@throws EOFException when SFF is shorter than expected
+	*/
+	public KumoSFFReader(InputStream in) throws IOException, SFFDecodeException {
+		this(new SFFBufferSource(in) );
+	}
+	
+	/**
+		Open SFF in seekable channel (e.g. file in zip FileSystem), reads are serialized.
+		Channel is closed by closeSFF().
+		@param ch channel having sff data
+		@throws IOException when IO Error occured
+		@throws SFFDecodeException when SFF was bad
+		@throws EOFException when SFF is shorter than expected
+	*/
+	public KumoSFFReader(SeekableByteChannel ch) throws IOException, SFFDecodeException {
+		this(new SFFChannelSource(ch) );
+	}
+	
+	/**
+		Open SFF from source. Source is closed by closeSFF(), or when opening failed.
+		@param s source of sff data
+		@throws IOException when IO Error occured
+		@throws SFFDecodeException when SFF was bad
+		@throws EOFException when SFF is shorter than expected
+	*/
+	public KumoSFFReader(SFFSource s) throws IOException, SFFDecodeException {
+		open(s, null, null);
+	}
+	
+	//Open from source, target and sidecar is for sidecar index (null if not using)
+	void open(SFFSource s, File target, File sidecar) throws IOException, SFFDecodeException {
+		src = s;
+		sffmap = s.Buffer();
+		if(target == null && s instanceof SFFFileSource) {
+			target = ( (SFFFileSource)s).GetFile();
+		}
+		srcname = target != null ? target.getPath() : s.getClass().getSimpleName();
+		SFFMetrics m = SFFMetrics.Current;
+		long t = m != null ? System.nanoTime() : 0;
+		SFFEvents.Open ev = SFFEvents.BeginOpen();
+		try {
+			if(sidecar == null) {
+				initSFF();
+			} else {
+				initSidecar(target, sidecar);
+			}
+			if(m != null) {
+				m.Open(System.nanoTime() - t);
+			}
+			if(ev != null) {
+				ev.end();
+				if(ev.shouldCommit() ) {
+					ev.file = srcname;
+					ev.version = SFFVersion;
+					ev.images = imgcount;
+					ev.palettes = palcount;
+					ev.sidecar = sidecar != null;
+					ev.commit();
+				}
+			}
+		} catch(IOException | SFFDecodeException | RuntimeException ex) {
+			closeSFF(); //Do not leak file handle when open failed
+			throw ex;
+		}
 	}
 	
 	void initSFF() throws SFFDecodeException, IOException {
 		//Read magic byte and version
-		byte hdr[] = new byte[16];
-		sff.readFully(hdr);
+		byte hdr[] = ReadData(0, 16);
 		//Check magic byte, if wrong then error
 		if(!C.compareBytes(hdr, 0, IDENT) ) {
 			throw new SFFDecodeException("File magic byte missmatch!", SFFDecodeException.WRONG_IDENT);
@@ -77,40 +263,112 @@ public class KumoSFFReader {
 		} else {
 			throw new SFFDecodeException("Incompatible sff version!", SFFDecodeException.BAD_VER);
 		}
+		//Make lookup table for searchers
+		int n = imgcount;
+		int grp[] = new int[n];
+		int ino[] = new int[n];
+		for(int i = 0; i < n; i++) {
+			grp[i] = sprtab[i * S_STRIDE + S_GRP];
+			ino[i] = sprtab[i * S_STRIDE + S_INO];
+		}
+		numindex = new SFFNumberIndex(grp, ino, n);
+	}
+	
+	//Load information from sidecar index, or parse sff then save it as sidecar
+	void initSidecar(File target, File sidecar) throws SFFDecodeException, IOException {
+		long size = src.Size();
+		long mtime = target.lastModified();
+		CRC32 crc = new CRC32();
+		crc.update(ReadData(0, (int)Math.min(512, size) ) ); //sff header
+		int hdrcrc = (int)crc.getValue();
+		SFFSidecar sc = SFFSidecar.Load(sidecar, size, mtime, hdrcrc, S_STRIDE, P_STRIDE);
+		if(sc != null) {
+			SFFVersion = sc.version;
+			sprtab = sc.sprtab;
+			paltab = sc.paltab;
+			imghash = sc.imghash;
+			imgcount = sc.imghash.length;
+			palcount = sc.palcount;
+			numindex = sc.index;
+			palcache = new AtomicReferenceArray<int[]>(SFFVersion == SFF_V1 ? imgcount : palcount);
+			return;
+		}
+		initSFF();
+		int h[] = new int[imgcount];
+		for(int i = 0; i < imgcount; i++) {
+			h[i] = ImageDataHash(i);
+		}
+		imghash = h;
+		try {
+			new SFFSidecar(SFFVersion, palcount, sprtab, paltab, imghash, numindex).Save(
+				sidecar, size, mtime, hdrcrc);
+		} catch(IOException ex) {
+			//Sidecar is only a cache, sff is usable without it
+		}
+	}
+	
+	//CRC32 of image data of imgid (not following link)
+	int ImageDataHash(int imgid) throws IOException {
+		return DataHash(spr(imgid, S_OFFSET), spr(imgid, S_LENGTH) );
+	}
+	
+	//CRC32 of len octets at offs
+	int DataHash(int offs, int len) throws IOException {
+		CRC32 crc = new CRC32();
+		ByteBuffer m = sffmap;
+		if(m != null && offs >= 0 && len <= m.limit() - offs) {
+			ByteBuffer b = m.duplicate();
+			b.position(offs);
+			b.limit(offs + len);
+			crc.update(b);
+		} else {
+			crc.update(ReadData(offs, len) );
+		}
+		return (int)crc.getValue();
 	}
 	
 	void initSFFv1() throws SFFDecodeException, IOException {
 		SFFVersion = SFF_V1;
 		//Read header except magic bytes and version info
-		byte hdr[] = new byte[20];
-		sff.readFully(hdr);
+		byte hdr[] = ReadData(16, 20);
 		int image_total = (int)C.b2ui(hdr, 4, 4); //Offset +20, uint32_t, total image count
 		int file_offset = (int)C.b2ui(hdr, 8, 4); //Offset +24, uint32_t, subfile offset	
+		long flen = src.Size();
 		//Check records.
 		if(!C.in_range(image_total, 0, 65535) ||
-			!C.in_range(file_offset, 0, sff.length() ) ) {
+			!C.in_range(file_offset, 0, flen) ) {
 			throw new SFFDecodeException("Bad header records!", 
 				SFFDecodeException.BAD_FILE);
 		}
 		//Read basic information about each image in sff
-		sffinfo = new SFFElements[image_total];
+		sprtab = new int[image_total * S_STRIDE];
+		imgcount = image_total;
+		//Subheaders are linked list with image data between them. They are read through
+		//read ahead window, so each small image does not need its own read.
+		byte win[] = new byte[0];
+		int winoff = 0;
 		for(int i = 0; i < image_total; i++) {
-			sff.seek(file_offset); //seek to next subfile entry
 			//read subfile header
-			byte shdr[] = new byte[19];
-			sff.readFully(shdr);
-			int next_off = (int)C.b2ui(shdr, 0, 4); //Offset: 0 uint32_t next data offset
-			int file_len = (int)C.b2ui(shdr, 4, 4); //Offset: 4 uint32_t image data length
-			int imgx = C.b2i16(shdr, 8); //Offset: 8 int16_t image center x
-			int imgy = C.b2i16(shdr, 10); //Offset: 10 int16_t image center y
-			int grp = (int)C.b2ui(shdr, 12, 2); //Offset 12 uint16_t image group number
-			int ino = (int)C.b2ui(shdr, 14, 2); //Offset 14 uint16_t image number
+			if(file_offset < winoff || file_offset + 19 > winoff + win.length) {
+				winoff = file_offset;
+				win = ReadData(winoff, (int)Math.min(V1_WINDOW, flen - winoff) );
+				if(win.length < 19) {
+					throw new EOFException(String.format("Subheader %d is out of file!", i) );
+				}
+			}
+			int h = file_offset - winoff; //subheader position in window
+			int next_off = (int)C.b2ui(win, h, 4); //Offset: 0 uint32_t next data offset
+			int file_len = (int)C.b2ui(win, h + 4, 4); //Offset: 4 uint32_t image data length
+			int imgx = C.b2i16(win, h + 8); //Offset: 8 int16_t image center x
+			int imgy = C.b2i16(win, h + 10); //Offset: 10 int16_t image center y
+			int grp = (int)C.b2ui(win, h + 12, 2); //Offset 12 uint16_t image group number
+			int ino = (int)C.b2ui(win, h + 14, 2); //Offset 14 uint16_t image number
 			//Offset 16 uint16_t image link destination id, if filelen = 0 this subfile is linked
 			//to another image
-			int ilin = (int)C.b2ui(shdr, 16, 2);
-			int pal = (int)C.b2ui(shdr, 18, 1); //Offset 18 uint8_t Palette mode 1 or 0
+			int ilin = (int)C.b2ui(win, h + 16, 2);
+			int pal = (int)C.b2ui(win, h + 18, 1); //Offset 18 uint8_t Palette mode 1 or 0
 			//Check parameters
-			if(!C.in_range(next_off, 0, sff.length() ) || !C.in_range(file_len, 0, sff.length() ) ||
+			if(!C.in_range(next_off, 0, flen) || !C.in_range(file_len, 0, flen) ||
 				!C.in_range(ilin, 0, image_total) || !C.in_range(pal, 0, 1) ) {
 				throw new SFFDecodeException(String.format("Bad subheader records on index%d!", i) ,
 					SFFDecodeException.BAD_FILE, i);
@@ -122,71 +380,68 @@ public class KumoSFFReader {
 					SFFDecodeException.BAD_FILE, i);
 			}
 			//Store parameters
-			SFFElements e = new SFFElements();
-			e.imgoffset = file_offset + 0x20; //image offset = current subheader offset + 0x20
-			e.imglength = file_len;
-			e.x = imgx;
-			e.y = imgy;
-			e.groupid = grp;
-			e.imageid = ino;
-			e.linkid = ilin;
-			if(pal == 0) { e.shared = false; } else { e.shared = true; }
-			sffinfo[i] = e;
+			int e = i * S_STRIDE;
+			sprtab[e + S_OFFSET] = file_offset + 0x20; //image offset = current subheader offset + 0x20
+			sprtab[e + S_LENGTH] = file_len;
+			sprtab[e + S_X] = imgx;
+			sprtab[e + S_Y] = imgy;
+			sprtab[e + S_GRP] = grp;
+			sprtab[e + S_INO] = ino;
+			sprtab[e + S_LINK] = ilin;
+			sprtab[e + S_FLAGS] = pal; //shared palette mode
 			file_offset = next_off; //advance file pointer for next entry
 		}
-		//Get Shared Palette
-		//We have a chance for getting null in SharedPal, but then ConvertImage() throws Exception and
-		//won't return malformed image probably...
-		if(GetImageCount() != 0) {
-			SharedPal = GetPalette(0);
-		}	
+		//Shared palette (palette of index 0) is read when it is needed first time
+		palcache = new AtomicReferenceArray<int[]>(image_total);
 	}
 	
 	void initSFFv2() throws SFFDecodeException, IOException {
 		SFFVersion = SFF_V2;
 		//Read header except magic bytes and version info
-		byte hdr[] = new byte[52];
-		sff.readFully(hdr);
+		byte hdr[] = ReadData(16, 52);
 		int spr_offset = (int)C.b2ui(hdr, 20, 4); //offset 36 uint32_t sprite data table offset
 		int spr_count = (int)C.b2ui(hdr, 24, 4); //offset 40 uint32_t sprite data count
 		int pal_offset = (int)C.b2ui(hdr, 28, 4); //Offset 44 uint32_t palette data table offset
 		int pal_count = (int)C.b2ui(hdr, 32, 4); //offset 48 uint32_t palette data count
 		int ldata_offset = (int)C.b2ui(hdr, 36, 4); //offset 52 uint32_t ldata offset
 		int tdata_offset = (int)C.b2ui(hdr, 44, 4); //offset 60 uint32_t tdata offset
+		long flen = src.Size();
 		//Check parameters
-		if(!C.in_range(spr_offset, 0, sff.length() ) || !C.in_range(spr_count, 0, 65535) ||
-			!C.in_range(pal_offset, 0, sff.length() ) || !C.in_range(pal_count, 0, 65535) ||
-			!C.in_range(ldata_offset, 0, sff.length() ) ||
-			!C.in_range(tdata_offset, 0, sff.length() ) ) {
+		if(!C.in_range(spr_offset, 0, flen) || !C.in_range(spr_count, 0, 65535) ||
+			!C.in_range(pal_offset, 0, flen) || !C.in_range(pal_count, 0, 65535) ||
+			!C.in_range(ldata_offset, 0, flen) ||
+			!C.in_range(tdata_offset, 0, flen) ) {
 			throw new SFFDecodeException("Bad header records!", 
 				SFFDecodeException.BAD_FILE);
 		}
 		//Read all palette information (feature from sffv2)
-		sff.seek(pal_offset); //seek to the top of palette data table
-		palinfo = new SFFPaletteElement[pal_count];
+		//whole palette table is read at once, then parsed
+		byte ptab[] = ReadData(pal_offset, pal_count * 16);
+		paltab = new int[pal_count * P_STRIDE];
+		palcount = pal_count;
+		palcache = new AtomicReferenceArray<int[]>(pal_count);
 		for(int i = 0; i < pal_count; i++) {
-			//read 16 octet (single palette record)
-			byte shdr[] = new byte[16];
-			sff.read(shdr);
-			int grp = (int)C.b2ui(shdr, 0, 2); //Offset 0 uint16_t palette group number
-			int pno = (int)C.b2ui(shdr, 2, 2); //Offset 2 uint16_t palette item number
-			int ncol = (int)C.b2ui(shdr, 4, 2); //Offset 4 uint16_t Element count
-			int lind = (int)C.b2ui(shdr, 6, 2); //Offset 6 uint16_t link index
-			int fileoff = (int)C.b2ui(shdr, 8, 4); //Offset 8 uint32_t data offset
-			int filelen = (int)C.b2ui(shdr, 12, 4); //Offset 12 uint32_t data length
-			SFFPaletteElement e = new SFFPaletteElement();
-			e.groupid = grp;
-			e.paletteid =  pno;
-			e.numcols = ncol;
-			e.linkid = lind;
-			e.paloffset = fileoff + ldata_offset; //Actual palette offset: ldata_offset + this value
-			e.pallength = filelen;
+			//each palette record is 16 octets long
+			int h = i * 16;
+			int grp = (int)C.b2ui(ptab, h, 2); //Offset 0 uint16_t palette group number
+			int pno = (int)C.b2ui(ptab, h + 2, 2); //Offset 2 uint16_t palette item number
+			int ncol = (int)C.b2ui(ptab, h + 4, 2); //Offset 4 uint16_t Element count
+			int lind = (int)C.b2ui(ptab, h + 6, 2); //Offset 6 uint16_t link index
+			int fileoff = (int)C.b2ui(ptab, h + 8, 4); //Offset 8 uint32_t data offset
+			int filelen = (int)C.b2ui(ptab, h + 12, 4); //Offset 12 uint32_t data length
+			int paloff = fileoff + ldata_offset; //Actual palette offset: ldata_offset + this value
 			//Check file offset and length
-			if(!C.in_range(e.paloffset, 0, sff.length() - filelen) ) {
+			if(!C.in_range(paloff, 0, flen - filelen) ) {
 				throw new SFFDecodeException(
 					String.format("Palette%d: Offset or length is out of file!", i),
 					SFFDecodeException.BAD_SUBFILE, i);
 			}
+			//if in link mode, link index should point another palette
+			if(filelen == 0 && (lind == i || lind >= pal_count) ) {
+				throw new SFFDecodeException(
+					String.format("Palette%d: Bad link index!", i),
+					SFFDecodeException.BAD_SUBFILE, i);
+			}
 			//Check if size is ncol * 4 (palette is uint32_t array.)
 			//Disabled check func because there is a size != ncol * 4
 			//is sometimes correct
@@ -195,28 +450,35 @@ public class KumoSFFReader {
 			//		String.format("Palette%d: Palette data size is weird!", i),
 			//		SFFDecodeException.BAD_SUBFILE, i);
 			//}
-			palinfo[i] = e;
+			int e = i * P_STRIDE;
+			paltab[e + P_GRP] = grp;
+			paltab[e + P_NO] = pno;
+			paltab[e + P_NUMCOLS] = ncol;
+			paltab[e + P_LINK] = lind;
+			paltab[e + P_OFFSET] = paloff;
+			paltab[e + P_LENGTH] = filelen;
 		}
 		//Read all sprite data
-		sffinfo = new SFFElements[spr_count];
-		sff.seek(spr_offset); //Seek to top of sprite data table
+		sprtab = new int[spr_count * S_STRIDE];
+		imgcount = spr_count;
+		//whole sprite table is read at once, then parsed
+		byte stab[] = ReadData(spr_offset, spr_count * 28);
 		for(int i = 0; i < spr_count; i++) {
-			//Read next record, each record is 28 octets long
-			byte[] shdr = new byte[28];
-			sff.readFully(shdr);
-			int grp = (int)C.b2ui(shdr, 0, 2); //Offset 0 uint16_t Group number
-			int ino = (int)C.b2ui(shdr, 2, 2); //Offset 2 uint16_t Image number
-			int iwidth = (int)C.b2ui(shdr, 4, 2); //Offset 4 uint16_t Image width
-			int iheight = (int)C.b2ui(shdr, 6, 2); //Offset 6 uint16_t Image height
-			int x = C.b2i16(shdr, 8); //Offset 8 int16_t Center X
-			int y = C.b2i16(shdr, 10); //Offset 10 int16_t Center Y
-			int lind = (int)C.b2ui(shdr, 12, 2); //Offset 12 uint16_t link index
-			int imgf = (int)C.b2ui(shdr, 14, 1); //Offset 14 uint8_t image format type 0~4
-			int cdep = (int)C.b2ui(shdr, 15, 1); //Offset 15 uint8_t image color depth
-			int file_off = (int)C.b2ui(shdr, 16, 4); //Offset 16 uint32_t image offset
-			int file_len = (int)C.b2ui(shdr, 20, 4); //Offset 20 uint32_t image length
-			int pal_index = (int)C.b2ui(shdr, 24, 2); //Offset 24 uint16_t palette index
-			int flags = (int)C.b2ui(shdr, 26, 2); //Offset 26 uint16_t falgs
+			//each sprite record is 28 octets long
+			int h = i * 28;
+			int grp = (int)C.b2ui(stab, h, 2); //Offset 0 uint16_t Group number
+			int ino = (int)C.b2ui(stab, h + 2, 2); //Offset 2 uint16_t Image number
+			int iwidth = (int)C.b2ui(stab, h + 4, 2); //Offset 4 uint16_t Image width
+			int iheight = (int)C.b2ui(stab, h + 6, 2); //Offset 6 uint16_t Image height
+			int x = C.b2i16(stab, h + 8); //Offset 8 int16_t Center X
+			int y = C.b2i16(stab, h + 10); //Offset 10 int16_t Center Y
+			int lind = (int)C.b2ui(stab, h + 12, 2); //Offset 12 uint16_t link index
+			int imgf = (int)C.b2ui(stab, h + 14, 1); //Offset 14 uint8_t image format type 0~4
+			int cdep = (int)C.b2ui(stab, h + 15, 1); //Offset 15 uint8_t image color depth
+			int file_off = (int)C.b2ui(stab, h + 16, 4); //Offset 16 uint32_t image offset
+			int file_len = (int)C.b2ui(stab, h + 20, 4); //Offset 20 uint32_t image length
+			int pal_index = (int)C.b2ui(stab, h + 24, 2); //Offset 24 uint16_t palette index
+			int flags = (int)C.b2ui(stab, h + 26, 2); //Offset 26 uint16_t falgs
 			//Check parameters
 			if(!(C.in_range(imgf, 0, 4) || C.in_range(imgf, 10, 12) ) ||
 				!C.in_range(lind, 0, spr_count) || !C.in_range(pal_index, 0, pal_count) ) {
@@ -231,42 +493,60 @@ public class KumoSFFReader {
 					SFFDecodeException.BAD_FILE, i);
 			}
 			//Store data
-			SFFElements e = new SFFElements();
-			e.groupid = grp;
-			e.imageid = ino;
-			e.imgwidth = iwidth;
-			e.imgheight = iheight;
-			e.x = x;
-			e.y = y;
-			e.linkid = lind;
-			e.imgtype = imgf;
-			e.colordepth = cdep;
-			e.paletteid = pal_index;
-			e.flags = flags;
 			//Data offset: file_off + ldata_offset (when flag=0), file_off + tdata_offset (when others)
+			int imgoff;
 			if(flags == 0) {
-				e.imgoffset = file_off + ldata_offset;
+				imgoff = file_off + ldata_offset;
 			} else {
-				e.imgoffset = file_off + tdata_offset;
+				imgoff = file_off + tdata_offset;
 			}
-			e.imglength = file_len;
 			//Check if image offset is in file
-			if(!C.in_range(e.imgoffset, 0, sff.length() - e.imglength) ) {
+			if(!C.in_range(imgoff, 0, flen - file_len) ) {
 				throw new SFFDecodeException(
 					String.format("Image %d: offset or length is out of file.", i),
 					SFFDecodeException.BAD_FILE, i);
 			}
-			sffinfo[i] = e;
+			//Store data
+			int e = i * S_STRIDE;
+			sprtab[e + S_GRP] = grp;
+			sprtab[e + S_INO] = ino;
+			sprtab[e + S_WIDTH] = iwidth;
+			sprtab[e + S_HEIGHT] = iheight;
+			sprtab[e + S_X] = x;
+			sprtab[e + S_Y] = y;
+			sprtab[e + S_LINK] = lind;
+			sprtab[e + S_TYPE] = imgf;
+			sprtab[e + S_DEPTH] = cdep;
+			sprtab[e + S_PAL] = pal_index;
+			sprtab[e + S_FLAGS] = flags;
+			sprtab[e + S_OFFSET] = imgoff;
+			sprtab[e + S_LENGTH] = file_len;
+		}
+	}
+	
+	//Get field f of image record at index imgid
+	//throws ArrayIndexOutOfBoundsException when imgid is out of image count.
+	int spr(int imgid, int f) {
+		if(imgid < 0 || imgid >= imgcount) {
+			throw new ArrayIndexOutOfBoundsException(
+				String.format("Index %d out of bounds for image count %d", imgid, imgcount) );
+		}
+		return sprtab[imgid * S_STRIDE + f];
+	}
+	
+	//Get field f of palette record at index palid
+	//throws ArrayIndexOutOfBoundsException when palid is out of palette count.
+	int pal(int palid, int f) {
+		if(palid < 0 || palid >= palcount) {
+			throw new ArrayIndexOutOfBoundsException(
+				String.format("Index %d out of bounds for palette count %d", palid, palcount) );
 		}
+		return paltab[palid * P_STRIDE + f];
 	}
 	
 	//internal function to decode RLE8 image
 	BufferedImage SFFv2DecodeRLE8Image(byte[] data, int imgw, int imgh, int[] pal, int ind)
 		throws SFFDecodeException, IOException {
-		BufferedImage img = new BufferedImage(imgw, imgh, BufferedImage.TYPE_INT_ARGB);
-		int x = 0;
-		int y = 0;
-		int rl = -1;
 		//first 4 octet represents uncompressed length of data
 		//and it must be the same as imgw * imgh
 		//and RLE8 is always for 256 indexed colour
@@ -276,39 +556,92 @@ public class KumoSFFReader {
 		int rawsize = (int)C.b2ui(data, 0, 4);
 		if(rawsize != imgw * imgh) {
 			throw new SFFDecodeException(
-				String.format("%d: RLE8 image uncompressed octet count is wrong!"),
+				String.format("%d: RLE8 image uncompressed octet count is wrong!", ind),
 				SFFDecodeException.BAD_SUBFILE, ind);
 		}
-		for(int c = 0;c < data.length - 4; c++) {
-			int e = Byte.toUnsignedInt(data[c + 4]); //get 1 compressed octet
-			//0b01xxxxxx is runlength, otherwise raw data
-			if((e & 0xc0) != 0x40 || rl != -1) {
-				//if not runlength or octet after runlength
-				if(rl == -1) {
-					rl = 1; //always assume runlength = 1
-				}
-				//Add pixel for runlength times
-				for(int ii = 0; ii < rl; ii++) {
-					int clr = pal[e];
-					img.setRGB(x, y, clr);
-					//advance x, we can use simple ++ method because java.awt.image.BufferedImage
-					//and sffv2 RLE8 has same coordinate system
-					x++;
-					if(x >= imgw) {
-						y++;
-						x = 0;
-						if(y >= imgh) { break; } //if y pointer reached to end, break loop
-					}
-				}
-				rl = -1;
-				if(y >= imgh) {break;} //if y pointer reached to end, break loop
-			} else {
-				rl = e - 0x40; //if e was 0b01xxxxxx, e - 0x40 is runlen.
-			}
+		BufferedImage img = new BufferedImage(imgw, imgh, BufferedImage.TYPE_INT_ARGB);
+		//Expand runs directly into raster data, pixels not in data[] are left transparent
+		int dst[] = ((DataBufferInt)img.getRaster().getDataBuffer() ).getData();
+		DConv.rle8(data, 4, pal, dst, 0, dst.length);
+		return img;
+	}
+	
+	//internal function to decode LZ5 or RLE5 image, they are decoded to colour index then
+	//converted to ARGB8888 with palette
+	BufferedImage SFFv2DecodeIndexImage(byte[] data, int imgw, int imgh, int imgt, int[] pal, int ind)
+		throws SFFDecodeException, IOException {
+		byte idx[] = new byte[imgw * imgh];
+		if(imgt == SFFV2_IMGTYPE_LZ5) {
+			SFFv2DecodeLZ5Index(data, idx, imgw, imgh, ind);
+		} else {
+			SFFv2DecodeRLE5Index(data, idx, imgw, imgh, ind);
 		}
+		BufferedImage img = new BufferedImage(imgw, imgh, BufferedImage.TYPE_INT_ARGB);
+		DConv.expand(idx, pal, ((DataBufferInt)img.getRaster().getDataBuffer() ).getData(), 0);
 		return img;
 	}
 	
+	//Check uncompressed size header of RLE5, LZ5 data (it must be the same as imgw * imgh)
+	void SFFv2CheckRawSize(byte[] data, int imgw, int imgh, String fmt, int ind)
+		throws SFFDecodeException, IOException {
+		if(data.length < 4) {
+			throw new EOFException(String.format("%d: %s image data too short!", ind, fmt) );
+		}
+		int rawsize = (int)C.b2ui(data, 0, 4);
+		if(rawsize != imgw * imgh) {
+			throw new SFFDecodeException(
+				String.format("%d: %s image uncompressed octet count is wrong!", ind, fmt),
+				SFFDecodeException.BAD_SUBFILE, ind);
+		}
+	}
+	
+	//internal function to decode LZ5 image to colour index dst[]
+	void SFFv2DecodeLZ5Index(byte[] data, byte[] dst, int imgw, int imgh, int ind)
+		throws SFFDecodeException, IOException {
+		//first 4 octet represents uncompressed length of data like RLE8
+		SFFv2CheckRawSize(data, imgw, imgh, "LZ5", ind);
+		if(DConv.lz5Index(data, 4, dst, 0, dst.length) < 0) {
+			throw new SFFDecodeException(
+				String.format("%d: LZ5 data refers out of image!", ind),
+				SFFDecodeException.BAD_SUBFILE, ind);
+		}
+	}
+	
+	//internal function to decode RLE5 image to colour index dst[]
+	void SFFv2DecodeRLE5Index(byte[] data, byte[] dst, int imgw, int imgh, int ind)
+		throws SFFDecodeException, IOException {
+		SFFv2CheckRawSize(data, imgw, imgh, "RLE5", ind);
+		DConv.rle5Index(data, 4, dst, 0, dst.length);
+	}
+	
+	//internal function to decode PNG image (PNG file format with image size uint32_t header)
+	BufferedImage SFFv2DecodePNGImage(byte[] data, int imgt, int[] pal, int ind)
+		throws SFFDecodeException, IOException {
+		try {
+			int hdr[] = PNGDecoder.ReadHeader(data, 4);
+			if(hdr != null) {
+				//Decode directly into raster, PNG8 uses sff palette (PLTE in sff is zero filled)
+				BufferedImage img = new BufferedImage(hdr[0], hdr[1], BufferedImage.TYPE_INT_ARGB);
+				PNGDecoder.DecodeARGB(data, 4, pal,
+					((DataBufferInt)img.getRaster().getDataBuffer() ).getData() );
+				return img;
+			}
+			//16 bit or interlaced, leave it for ImageIO
+			if(imgt == SFFV21_IMGTYPE_PNG8) {
+				//Must get palette and modify PLTE before proceeding
+				return DConv.fromPNG(data, pal);
+			}
+			return DConv.fromPNG(data);
+		} catch(EOFException ex) {
+			throw new EOFException(String.format("%d: PNG image data too short!", ind) );
+		} catch(Exception ex) {
+			//Data is on memory, so other errors of PNGDecoder and ImageIO are bad PNG data
+			throw new SFFDecodeException(
+				String.format("%d: Bad formatted PNG: %s", ind, ex.getMessage() ),
+				SFFDecodeException.BAD_SUBFILE, ind);
+		}
+	}
+	
 	//Internal function to decode raw image to BufferedImage
 	BufferedImage SFFv2DecodeRawImage(byte data[], int imgw, int imgh, int cdep, int pal[], int ind)
 		throws SFFDecodeException, IOException {
@@ -337,7 +670,7 @@ public class KumoSFFReader {
 				//System.out.printf("%08x\n", (int)Common.b2uibe(data, i * 4, 4) );
 				c = (int)C.b2uibe(data, i * 4, 3); //rgb888
 				c += Byte.toUnsignedInt(data[i * 4 + 3]) << 24; //alpha
-				
+			
 			}
 			img.setRGB(x, y, c);
 			//Advance x, if x reaches end of line, reset x and advance y
@@ -351,6 +684,25 @@ public class KumoSFFReader {
 		return img;
 	}
 	
+	//Internal function to read len octets from file offset offs into new array
+	//Copies from whole data buffer if available (no read call), otherwise source's positional read.
+	//Both do not move shared file pointer so it is safe to call from multiple threads.
+	byte[] ReadData(int offs, int len) throws IOException {
+		byte r[] = new byte[len];
+		ByteBuffer m = sffmap;
+		if(offs < 0 || (m != null && len > m.limit() - offs) ) {
+			throw new EOFException(String.format("Reading %d octets at %d is out of file!", len, offs) );
+		}
+		if(m != null) {
+			ByteBuffer b = m.duplicate(); //Do not touch position of shared mapping
+			b.position(offs);
+			b.get(r);
+		} else {
+			src.Read(offs, ByteBuffer.wrap(r) );
+		}
+		return r;
+	}
+	
 	/**
 		Returns reading sff file format version.
 		@return 1: sffv1 2: sffv2
@@ -364,15 +716,28 @@ public class KumoSFFReader {
 		because big data (like actual image data) is not stored in your memory.
 	*/
 	public void closeSFF() {
-		try { sff.close(); } catch (IOException ex) {}
+		SFFCache c = imgcache;
+		if(c != null) {
+			c.RemoveOwner(this); //Free cached images of this reader
+		}
+		sffmap = null; //Mapping is released when garbage collected
+		try { src.close(); } catch (IOException ex) {}
 	}
-
+	
+	/**
+		Returns true if reader is reading sff in memory mapped mode, or sff is in memory.
+		@return true if data is read from mapping or memory without read calls
+	*/
+	public boolean IsMapped() {
+		return sffmap != null;
+	}
+	
 	/**
 		Returns image count contained in the sff.
 		@return total image count in sff
 	*/
 	public int GetImageCount() {
-		return sffinfo.length;
+		return imgcount;
 	}
 	
 	/**
@@ -382,7 +747,7 @@ public class KumoSFFReader {
 		@throws ArrayIndexOutOfBoundsException when imgid is greater than image count.
 	*/
 	public int GetGroupNumber(int imgid) {
-		return sffinfo[imgid].groupid;
+		return spr(imgid, S_GRP);
 	}
 	
 	/**
@@ -392,7 +757,7 @@ public class KumoSFFReader {
 		@throws ArrayIndexOutOfBoundsException when imgid is greater than image count.
 	*/
 	public int GetImageNumber(int imgid) {
-		return sffinfo[imgid].imageid;
+		return spr(imgid, S_INO);
 	}
 	
 	/**
@@ -402,8 +767,7 @@ public class KumoSFFReader {
 		@throws ArrayIndexOutOfBoundsException when imgid is greater than image count.
 	*/
 	public Point GetCoordinate(int imgid) {
-		SFFElements e = sffinfo[imgid];
-		return new Point(e.x, e.y);
+		return new Point(spr(imgid, S_X), spr(imgid, S_Y) );
 	}
 	
 	/**
@@ -413,7 +777,7 @@ public class KumoSFFReader {
 		@throws ArrayIndexOutOfBoundsException when imgid is greater than image count.
 	*/
 	public int GetX(int imgid) {
-		return sffinfo[imgid].x;
+		return spr(imgid, S_X);
 	}
 	
 	/**
@@ -423,7 +787,7 @@ public class KumoSFFReader {
 		@throws ArrayIndexOutOfBoundsException when imgid is greater than image count.
 	*/
 	public int GetY(int imgid) {
-		return sffinfo[imgid].y;
+		return spr(imgid, S_Y);
 	}
 	
 	/**
@@ -433,11 +797,10 @@ public class KumoSFFReader {
 		@throws ArrayIndexOutOfBoundsException when imgid is greater than image count.
 	*/
 	public int GetLinkState(int imgid) {
-		SFFElements e = sffinfo[imgid];
 		//If image length appars to 0, image is linked one
 		//in sffv2, image type will be 1 (INVALID) too.
-		if(e.imglength == 0) {
-			return e.linkid;
+		if(spr(imgid, S_LENGTH) == 0) {
+			return spr(imgid, S_LINK);
 		}
 		return -1;
 	}
@@ -450,7 +813,7 @@ public class KumoSFFReader {
 	*/
 	public boolean IsSharedPalette(int imgid) {
 		if(GetSFFVersion() == SFF_V2) { return false; }
-		return sffinfo[imgid].shared;
+		return spr(imgid, S_FLAGS) != 0;
 	}
 	
 	/**
@@ -466,7 +829,7 @@ public class KumoSFFReader {
 		if(GetSFFVersion() == SFF_V1) {
 			return -1;
 		}
-		return sffinfo[imgid].imgtype;
+		return spr(imgid, S_TYPE);
 	}
 	
 	/**
@@ -479,7 +842,7 @@ public class KumoSFFReader {
 		if(GetSFFVersion() == SFF_V1) {
 			return -1;
 		}
-		return sffinfo[imgid].colordepth;
+		return spr(imgid, S_DEPTH);
 	}
 	
 	/**
@@ -492,7 +855,7 @@ public class KumoSFFReader {
 		if(GetSFFVersion() == SFF_V1) {
 			return -1;
 		}
-		return sffinfo[imgid].paletteid;
+		return spr(imgid, S_PAL);
 	}
 	
 	/**
@@ -502,11 +865,11 @@ public class KumoSFFReader {
 		@throws ArrayIndexOutOfBoundsException when imgid is greater than image count.
 	*/
 	public Dimension SFFv2GetImageSize(int imgid) {
-		SFFElements e = sffinfo[imgid];
+		spr(imgid, S_WIDTH); //Check index
 		if(GetSFFVersion() == SFF_V1) {
 			return null;
 		}
-		return new Dimension(e.imgwidth, e.imgheight);
+		return new Dimension(spr(imgid, S_WIDTH), spr(imgid, S_HEIGHT) );
 	}
 	
 	/**
@@ -519,7 +882,7 @@ public class KumoSFFReader {
 		if(GetSFFVersion() == SFF_V1) {
 			return -1;
 		}
-		return sffinfo[imgid].imgwidth;
+		return spr(imgid, S_WIDTH);
 	}
 	
 	/**
@@ -532,11 +895,12 @@ public class KumoSFFReader {
 		if(GetSFFVersion() == SFF_V1) {
 			return -1;
 		}
-		return sffinfo[imgid].imgheight;
+		return spr(imgid, S_HEIGHT);
 	}
 	
 	/**
 		Returns raw image data at specified index.
+		Returned array is always a new copy, even in memory mapped mode (see GetRawImageBuffer()).
 		@param imgid Image index in order of sff subfiles.
 		@return Raw image bytearray. Maybe without palette data if shared palette.
 		@throws ArrayIndexOutOfBoundsException when imgid is greater than image count.
@@ -544,7 +908,6 @@ public class KumoSFFReader {
 		@throws EOFException when SFF is shorter than excepted.
 	*/
 	public byte[] GetRawImage(int imgid) throws IOException {
-		SFFElements e = sffinfo[imgid];
 		byte r[];
 		int linkstate = GetLinkState(imgid);
 		if(linkstate != -1) {
@@ -552,13 +915,74 @@ public class KumoSFFReader {
 			return GetRawImage(linkstate); //Recursive call
 		} else {
 			//actual image. read data.
-			r = new byte[e.imglength];
-			sff.seek(e.imgoffset);
-			sff.readFully(r);
+			SFFEvents.Read ev = SFFEvents.BeginRead();
+			r = ReadData(spr(imgid, S_OFFSET), spr(imgid, S_LENGTH) );
+			SFFMetrics m = SFFMetrics.Current;
+			if(m != null) {
+				m.imagebytes.add(r.length);
+			}
+			if(ev != null) {
+				ev.end();
+				if(ev.shouldCommit() ) {
+					EventImage(ev, imgid);
+					ev.commit();
+				}
+			}
 		}
 		return r;
 	}
 	
+	/**
+		Returns raw image data at specified index as read only ByteBuffer.
+		In memory mapped mode or for sff in memory, returned buffer is a view of the data and no copy is made.
+		Otherwise it is the same as GetRawImage() but wrapped.
+		@param imgid Image index in order of sff subfiles.
+		@return Raw image data, position is 0 and limit is data length.
+		@throws ArrayIndexOutOfBoundsException when imgid is greater than image count.
+		@throws IOException when IO Error occured.
+		@throws EOFException when SFF is shorter than excepted.
+	*/
+	public ByteBuffer GetRawImageBuffer(int imgid) throws IOException {
+		int linkstate = GetLinkState(imgid);
+		if(linkstate != -1) {
+			return GetRawImageBuffer(linkstate); //linked mode.
+		}
+		ByteBuffer m = sffmap;
+		if(m == null) {
+			return ByteBuffer.wrap(GetRawImage(imgid) ).asReadOnlyBuffer();
+		}
+		int offs = spr(imgid, S_OFFSET);
+		ByteBuffer b = m.asReadOnlyBuffer();
+		b.position(offs);
+		b.limit(offs + spr(imgid, S_LENGTH) );
+		SFFMetrics mt = SFFMetrics.Current;
+		if(mt != null) {
+			mt.imagebytes.add(b.remaining() );
+		}
+		return b.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	/**
+		Returns CRC32 of image data at specified index, linked image returns hash of
+		linked destination. Images having same hash likely have same data.
+		Hashes are kept in sidecar index, calculated from data if not opened with sidecar.
+		@param imgid Image index in order of sff subfiles.
+		@return CRC32 of raw image data.
+		@throws ArrayIndexOutOfBoundsException when imgid is greater than image count.
+		@throws IOException when IO Error occured.
+	*/
+	public int GetImageHash(int imgid) throws IOException {
+		int linkstate = GetLinkState(imgid);
+		if(linkstate != -1) {
+			return GetImageHash(linkstate); //linked mode.
+		}
+		int h[] = imghash;
+		if(h != null) {
+			return h[imgid];
+		}
+		return ImageDataHash(imgid);
+	}
+	
 	/**
 		SFFv1 only. Returns palette data of image at specified index
 		@param imgid Image index in order of sff subfiles. null if SFFv2.
@@ -571,21 +995,57 @@ public class KumoSFFReader {
 		if(GetSFFVersion() == SFF_V2) {
 			return null;
 		}
-		byte data[] = GetRawImage(imgid);
-		//If PCX is shorter than header + palette length, maybe no palette
-		if(data.length < 128 + 769) {
+		int pal[] = PCXPaletteData(imgid);
+		if(pal == null) {
 			return null;
 		}
-		//If palette data is not starting with uint8_t const 12, maybe there is no palette
-		int paloff = data.length - 769;
-		if(data[paloff] != 12) {
+		return pal.clone(); //Cached one is shared, give copy
+	}
+	
+	//Internal function to get palette of pcx at specified index, returns cached (shared) array.
+	//Do not modify returned array.
+	int[] PCXPaletteData(int imgid) throws IOException {
+		int linkstate = GetLinkState(imgid);
+		if(linkstate != -1) {
+			return PCXPaletteData(linkstate); //linked mode.
+		}
+		int a[] = imgalias;
+		if(a != null && a[imgid] != imgid) {
+			return PCXPaletteData(a[imgid]); //Same pcx as other image
+		}
+		int pal[] = CachedPalette(imgid);
+		if(pal == null) {
+			pal = PCXReadPalette(imgid);
+			CachePalette(imgid, pal);
+		}
+		if(pal == NOPAL) {
 			return null;
 		}
+		return pal;
+	}
+	
+	//Read palette at the tail of pcx, only palette part is read from file.
+	//Returns NOPAL if there is no palette.
+	int[] PCXReadPalette(int imgid) throws IOException {
+		int len = spr(imgid, S_LENGTH);
+		//If PCX is shorter than header + palette length, maybe no palette
+		if(len < 128 + 769) {
+			return NOPAL;
+		}
+		byte data[] = ReadData(spr(imgid, S_OFFSET) + len - 769, 769);
+		SFFMetrics m = SFFMetrics.Current;
+		if(m != null) {
+			m.palettebytes.add(data.length);
+		}
+		//If palette data is not starting with uint8_t const 12, maybe there is no palette
+		if(data[0] != 12) {
+			return NOPAL;
+		}
 		//Decode palette data
 		int pal[] = new int[256];
 		//Decode palette, palette is 256 count array of RGB888 values 
 		for(int i = 0; i < 256; i++) {
-			pal[i] = (int)C.b2uibe(data, paloff + (i * 3) + 1, 3); //get RGB888 value
+			pal[i] = (int)C.b2uibe(data, (i * 3) + 1, 3); //get RGB888 value
 			//convert to ARGB8888
 			//index 0 colour is always transparent, alpha=255 except index 0
 			if(i != 0) {pal[i] += 0xff000000;}
@@ -595,6 +1055,7 @@ public class KumoSFFReader {
 	
 	/**
 		Get image data of specified index then convert it to BufferedImage
+		If image cache is enabled, returned image may be shared with other callers, do not modify it.
 		@param imgid Image index in order of sff subfiles.
 		@return BufferedImage, formatted in TYPE_INT_ARGB32.
 		@throws ArrayIndexOutOfBoundsException when imgid is greater than image count.
@@ -603,19 +1064,15 @@ public class KumoSFFReader {
 		@throws SFFDecodeException when image format was bad.
 	*/
 	public BufferedImage ConvertImage(int imgid)  throws IOException, SFFDecodeException {
-		if(GetSFFVersion() == SFF_V1) {
-			//SFFv1 allows only pcx, decode.
-			return DecodePCXImage(imgid, null);
-		} else if(GetSFFVersion() == SFF_V2) {
-			return SFFv2DecodeImage(imgid, null);
-		}
-		return null; //Unreachable
+		return ConvertImage(imgid, null);
 	}
 	
 	/**
 		Get image data of specified index then convert it to BufferedImage
 		using specified palette data. Only for images that has colordepth
 		is 8 or less. Otherwise pal[] will not be used.
+		If image cache is enabled, returned image may be shared with other callers, do not modify it.
+		Cached image is found by identity of pal[], so do not modify pal[] after passing it.
 		@param imgid Image index in order of sff subfiles.
 		@param pal[] palette data, ARGB8888 array.
 		@return BufferedImage, formatted in TYPE_INT_ARGB32.
@@ -625,13 +1082,709 @@ public class KumoSFFReader {
 		@throws SFFDecodeException when image format was bad.
 	*/
 	public BufferedImage ConvertImage(int imgid, int pal[])  throws IOException, SFFDecodeException {
+		SFFCache c = imgcache;
+		SFFMetrics m = SFFMetrics.Current;
+		int target = -1;
+		if(c != null || m != null) {
+			//Linked images share one entry, keyed by link destination
+			target = ResolveDecoded(imgid);
+		}
+		if(m != null) {
+			CountRedirect(m, imgid);
+		}
+		if(c != null) {
+			Object r = c.Get(this, SFFCache.KIND_IMAGE, target, pal);
+			if(r != null) {
+				return (BufferedImage)r;
+			}
+		}
+		long t = m != null ? System.nanoTime() : 0;
+		SFFEvents.Decode ev = SFFEvents.BeginDecode();
+		BufferedImage r = null;
 		if(GetSFFVersion() == SFF_V1) {
 			//SFFv1 allows only pcx, decode.
-			return DecodePCXImage(imgid, pal);
+			r = DecodePCXImage(imgid, pal);
 		} else if(GetSFFVersion() == SFF_V2) {
-			return SFFv2DecodeImage(imgid, pal);
+			r = SFFv2DecodeImage(imgid, pal);
+		}
+		if(m != null) {
+			m.Decode(SFFv2GetImageType(target), System.nanoTime() - t);
+		}
+		EventDecode(ev, imgid, r, false);
+		if(c != null && r != null) {
+			c.Put(this, SFFCache.KIND_IMAGE, target, pal, r, (long)r.getWidth() * r.getHeight() * 4);
+		}
+		return r;
+	}
+	
+	/**
+		Get image data of specified index then convert it to BufferedImage using options:
+		only clip rectangle is decoded, and image is flipped while decoding.
+		PCX, RAW and RLE8 are clipped and flipped while expanding, and lines below clip
+		rectangle are not decoded. Other formats are decoded whole by ConvertImage() (cache is used)
+		then clip rectangle is copied. Clipped or flipped image is not cached.
+		@param imgid Image index in order of sff subfiles.
+		@param o decode options, null to decode whole image as ConvertImage(int).
+		@return BufferedImage, formatted in TYPE_INT_ARGB32, size of clip rectangle in the image.
+		null if clip rectangle does not overlap the image.
+		@throws ArrayIndexOutOfBoundsException when imgid is greater than image count.
+		@throws IOException when IO Error occured.
+		@throws EOFException when image data is shorter than excepted.
+		@throws SFFDecodeException when image format was bad.
+	*/
+	public BufferedImage ConvertImageWithOptions(int imgid, SFFDecodeOptions o) throws IOException, SFFDecodeException {
+		if(o == null) {
+			o = new SFFDecodeOptions();
+		}
+		int pal[] = o.Palette;
+		if(o.Clip == null && !o.FlipH && !o.FlipV) {
+			return ConvertImage(imgid, pal);
+		}
+		int target = imgid;
+		int imgt = -1;
+		if(GetSFFVersion() == SFF_V2) {
+			target = ResolveLink(imgid);
+			imgt = SFFv2GetImageType(target);
+			int imgc = SFFv2GetImageColorDepth(target);
+			if(imgt != SFFV2_IMGTYPE_RAW && !(imgt == SFFV2_IMGTYPE_RLE8 && imgc == 8) ) {
+				//Decode whole image then copy clip rectangle
+				BufferedImage f = ConvertImage(imgid, pal);
+				Rectangle c = ClipRect(o, f.getWidth(), f.getHeight() );
+				if(c == null) {
+					return null;
+				}
+				BufferedImage r = new BufferedImage(c.width, c.height, BufferedImage.TYPE_INT_ARGB);
+				DConv.clip(f.getRGB(c.x, c.y, c.width, c.height, null, 0, c.width), c.width,
+					((DataBufferInt)r.getRaster().getDataBuffer() ).getData(),
+					0, 0, c.width, c.height, o.FlipH, o.FlipV);
+				return r;
+			}
+		}
+		SFFMetrics m = SFFMetrics.Current;
+		if(m != null) {
+			CountRedirect(m, imgid);
+		}
+		long t = m != null ? System.nanoTime() : 0;
+		SFFEvents.Decode ev = SFFEvents.BeginDecode();
+		byte data[] = GetRawImage(target);
+		int imgw, imgh, scanline = 0;
+		int dpal[];
+		if(GetSFFVersion() == SFF_V1) {
+			int hdr[] = PCXParseHeader(data, imgid);
+			imgw = hdr[0];
+			imgh = hdr[1];
+			scanline = hdr[2];
+			dpal = PCXDecidePalette(imgid, pal);
+		} else {
+			imgw = SFFv2GetImageWidth(target);
+			imgh = SFFv2GetImageHeight(target);
+			dpal = SFFv2DecidePalette(target, pal);
+		}
+		Rectangle c = ClipRect(o, imgw, imgh);
+		if(c == null) {
+			return null;
+		}
+		BufferedImage r = new BufferedImage(c.width, c.height, BufferedImage.TYPE_INT_ARGB);
+		int dst[] = ((DataBufferInt)r.getRaster().getDataBuffer() ).getData();
+		if(GetSFFVersion() == SFF_V1) {
+			DConv.pcxClip(data, 128, dpal, dst, imgw, imgh, scanline,
+				c.x, c.y, c.width, c.height, o.FlipH, o.FlipV);
+		} else if(imgt == SFFV2_IMGTYPE_RLE8) {
+			SFFv2CheckRawSize(data, imgw, imgh, "RLE8", target);
+			DConv.rle8Clip(data, 4, dpal, dst, imgw, imgh, c.x, c.y, c.width, c.height, o.FlipH, o.FlipV);
+		} else {
+			int cdep = SFFv2GetImageColorDepth(target);
+			if(cdep != 8 && cdep != 24 && cdep != 32) {
+				throw new SFFDecodeException(
+					String.format("%d: Bad colordepth! (accepted values: 8, 24 and 32)", target),
+					SFFDecodeException.BAD_SUBFILE, target);
+			}
+			DConv.rawClip(data, cdep, dpal, dst, imgw, c.x, c.y, c.width, c.height, o.FlipH, o.FlipV);
+		}
+		if(m != null) {
+			m.Decode(imgt, System.nanoTime() - t);
+		}
+		EventDecode(ev, imgid, r, false);
+		return r;
+	}
+	
+	//Clip rectangle of options in w x h image, null if it does not overlap the image
+	Rectangle ClipRect(SFFDecodeOptions o, int w, int h) {
+		Rectangle r = new Rectangle(0, 0, w, h);
+		if(o.Clip != null) {
+			r = r.intersection(o.Clip);
+		}
+		return r.isEmpty() ? null : r;
+	}
+	
+	//Commit JFR decode event of imgid if it is enabled (not null) and over threshold
+	void EventDecode(SFFEvents.Decode ev, int imgid, BufferedImage r, boolean indexed) throws SFFDecodeException {
+		if(ev == null) {
+			return;
 		}
-		return null; //Unreachable
+		ev.end();
+		if(r == null || !ev.shouldCommit() ) {
+			return;
+		}
+		EventImage(ev, ResolveLink(imgid) );
+		ev.index = imgid;
+		ev.group = GetGroupNumber(imgid);
+		ev.image = GetImageNumber(imgid);
+		ev.width = r.getWidth();
+		ev.height = r.getHeight();
+		ev.indexed = indexed;
+		ev.commit();
+	}
+	
+	//Fill image fields of JFR event, format fields are of imgid (link destination)
+	void EventImage(SFFEvents.Image ev, int imgid) {
+		ev.file = srcname;
+		ev.index = imgid;
+		ev.group = GetGroupNumber(imgid);
+		ev.image = GetImageNumber(imgid);
+		ev.type = SFFv2GetImageType(imgid);
+		ev.depth = GetSFFVersion() == SFF_V1 ? 8 : SFFv2GetImageColorDepth(imgid);
+		ev.size = spr(imgid, S_LENGTH);
+	}
+	
+	//Image index having the same decoded image as imgid: link destination, or imgid itself
+	//if sffv1 palette mode differs from destination (palette of linked pcx is decided by its own mode)
+	int ResolveDecoded(int imgid) throws SFFDecodeException {
+		int target = ResolveLink(imgid);
+		if(GetSFFVersion() == SFF_V1 && IsSharedPalette(imgid) != IsSharedPalette(target) ) {
+			return imgid;
+		}
+		return target;
+	}
+	
+	//Count decoding imgid redirected by link in the file, or by Deduplicate() alias
+	void CountRedirect(SFFMetrics m, int imgid) throws SFFDecodeException {
+		if(GetLinkState(imgid) != -1) {
+			m.links.increment();
+		} else if(imgalias != null && ResolveLink(imgid) != imgid) {
+			m.aliases.increment();
+		}
+	}
+	
+	//Follow link until actual image, throws SFFDecodeException if links are looping
+	int ResolveLink(int imgid) throws SFFDecodeException {
+		int i = imgid;
+		for(int n = 0; n <= GetImageCount(); n++) {
+			int l = GetLinkState(i);
+			if(l == -1) {
+				int a[] = imgalias;
+				return a == null ? i : a[i]; //Image having the same data (Deduplicate())
+			}
+			i = l;
+		}
+		throw new SFFDecodeException(String.format("Image %d: link is looping!", imgid),
+			SFFDecodeException.BAD_FILE, imgid);
+	}
+	
+	/**
+		Find images and palettes having the same data as another one but not linked to it,
+		then treat them as linked. Decoded images and palettes of them are shared, so cache
+		keeps one copy per unique data. Data is hashed in parallel using common ForkJoinPool,
+		then same hashes are compared octet by octet.
+		Images are same only if their format, size and palette (after deduplication) are same.
+		GetLinkState() and SFFv2GetPaletteLinkState() still return links in the file.
+		@return count and data length of found duplicates
+		@throws IOException when IO Error occured.
+	*/
+	public SFFDedupReport Deduplicate() throws IOException {
+		return Deduplicate(null);
+	}
+	
+	/**
+		Deduplicate() but hashes data using specified executor.
+		@param ex executor, null to use common ForkJoinPool.
+		@return count and data length of found duplicates
+		@throws IOException when IO Error occured.
+	*/
+	public SFFDedupReport Deduplicate(Executor ex) throws IOException {
+		if(ex == null) {
+			ex = ForkJoinPool.commonPool();
+		}
+		//Palettes first, images having same palette data are compared as same palette
+		int pa[] = new int[palcount];
+		long palbytes = 0;
+		int paldup = 0;
+		if(palcount > 0) {
+			pa = FindDuplicates(palcount, true, DataHashes(palcount, true, ex), null);
+			for(int i = 0; i < palcount; i++) {
+				if(pa[i] != i) {
+					paldup++;
+					palbytes += pal(i, P_LENGTH);
+				}
+			}
+		}
+		int h[] = imghash;
+		int ia[] = FindDuplicates(imgcount, false, h != null ? h : DataHashes(imgcount, false, ex), pa);
+		long imgbytes = 0;
+		int imgdup = 0;
+		for(int i = 0; i < imgcount; i++) {
+			if(ia[i] != i) {
+				imgdup++;
+				imgbytes += spr(i, S_LENGTH);
+			}
+		}
+		palalias = pa;
+		imgalias = ia;
+		return new SFFDedupReport(imgdup, imgbytes, paldup, palbytes);
+	}
+	
+	//CRC32 of data of each image (or palette) in parallel, 64 entries per task.
+	//Hash of linked entry is not used.
+	int[] DataHashes(int count, boolean palette, Executor ex) throws IOException {
+		int h[] = new int[count];
+		ArrayList<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>();
+		for(int s = 0; s < count; s += 64) {
+			final int start = s;
+			final int end = Math.min(count, s + 64);
+			FutureTask<Void> t = new FutureTask<Void>(() -> {
+				for(int i = start; i < end; i++) {
+					int len = palette ? pal(i, P_LENGTH) : spr(i, S_LENGTH);
+					if(len != 0) {
+						h[i] = DataHash(palette ? pal(i, P_OFFSET) : spr(i, S_OFFSET), len);
+					}
+				}
+				return null;
+			});
+			tasks.add(t);
+			ex.execute(t);
+		}
+		try {
+			for(FutureTask<Void> t : tasks) {
+				t.get();
+			}
+		} catch(ExecutionException e) {
+			for(FutureTask<Void> t : tasks) {
+				t.cancel(false);
+			}
+			Throwable c = e.getCause();
+			if(c instanceof IOException) { throw (IOException)c; }
+			if(c instanceof RuntimeException) { throw (RuntimeException)c; }
+			if(c instanceof Error) { throw (Error)c; }
+			throw new IOException(c);
+		} catch(InterruptedException e) {
+			for(FutureTask<Void> t : tasks) {
+				t.cancel(false);
+			}
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while hashing data");
+		}
+		return h;
+	}
+	
+	//Returns first entry having the same data per entry (itself if unique or linked).
+	//pa is palette alias of images (sffv2), entries are compared only if hash and length are same.
+	int[] FindDuplicates(int count, boolean palette, int hash[], int pa[]) throws IOException {
+		int r[] = new int[count];
+		HashMap<Long, ArrayList<Integer>> found = new HashMap<Long, ArrayList<Integer>>();
+		for(int i = 0; i < count; i++) {
+			r[i] = i;
+			int len = palette ? pal(i, P_LENGTH) : spr(i, S_LENGTH);
+			if(len == 0) {
+				continue; //Linked
+			}
+			long k = ( (long)hash[i] << 32) | len;
+			ArrayList<Integer> l = found.get(k);
+			if(l == null) {
+				l = new ArrayList<Integer>(1);
+				found.put(k, l);
+			}
+			for(int j : l) {
+				if(SameEntry(i, j, palette, pa) ) {
+					r[i] = j;
+					break;
+				}
+			}
+			if(r[i] == i) {
+				l.add(i);
+			}
+		}
+		return r;
+	}
+	
+	//Returns true if image (or palette) a and b have same parameters and data
+	boolean SameEntry(int a, int b, boolean palette, int pa[]) throws IOException {
+		int offa, offb, len;
+		if(palette) {
+			if(pal(a, P_NUMCOLS) != pal(b, P_NUMCOLS) ) {
+				return false;
+			}
+			offa = pal(a, P_OFFSET);
+			offb = pal(b, P_OFFSET);
+			len = pal(a, P_LENGTH);
+		} else {
+			if(GetSFFVersion() == SFF_V1) {
+				if(spr(a, S_FLAGS) != spr(b, S_FLAGS) ) {
+					return false; //Different palette mode
+				}
+			} else {
+				for(int f : new int[] {S_WIDTH, S_HEIGHT, S_TYPE, S_DEPTH}) {
+					if(spr(a, f) != spr(b, f) ) {
+						return false;
+					}
+				}
+				if(spr(a, S_DEPTH) <= 8 && PaletteAlias(spr(a, S_PAL), pa) != PaletteAlias(spr(b, S_PAL), pa) ) {
+					return false;
+				}
+			}
+			offa = spr(a, S_OFFSET);
+			offb = spr(b, S_OFFSET);
+			len = spr(a, S_LENGTH);
+		}
+		ByteBuffer m = sffmap;
+		try {
+			if(m != null) {
+				return ReadBuffer(m, offa, len).equals(ReadBuffer(m, offb, len) );
+			}
+			return Arrays.equals(ReadData(offa, len), ReadData(offb, len) );
+		} catch(EOFException ex) {
+			return false; //Data out of file, keep it as is
+		}
+	}
+	
+	//Slice of whole data buffer, throws EOFException if it is out of buffer
+	ByteBuffer ReadBuffer(ByteBuffer m, int offs, int len) throws EOFException {
+		if(offs < 0 || len > m.limit() - offs) {
+			throw new EOFException(String.format("Reading %d octets at %d is out of file!", len, offs) );
+		}
+		ByteBuffer b = m.duplicate();
+		b.position(offs);
+		b.limit(offs + len);
+		return b;
+	}
+	
+	//Palette having same data as palid: follows palette links then alias pa, palid if out of range
+	int PaletteAlias(int palid, int pa[]) {
+		for(int n = 0; n <= palcount && C.in_range(palid, 0, palcount - 1); n++) {
+			int l = SFFv2GetPaletteLinkState(palid);
+			if(l == -1) {
+				return pa[palid];
+			}
+			palid = l;
+		}
+		return palid;
+	}
+	
+	/**
+		Enable decoded image cache with specified size limit.
+		ConvertImage() result is cached, linked images share the same entry.
+		Least recently used images are evicted when size exceeds limit.
+		@param maxsize size limit in octets, 0 or less to disable cache.
+	*/
+	public void SetImageCacheSize(long maxsize) {
+		if(maxsize <= 0) {
+			SetImageCache(null);
+		} else {
+			SetImageCache(new SFFCache(maxsize) );
+		}
+	}
+	
+	/**
+		Use specified cache for decoded images. Same cache can be shared between
+		readers to apply one size limit to all of them.
+		@param c cache to use, null to disable cache.
+	*/
+	public void SetImageCache(SFFCache c) {
+		SFFCache old = imgcache;
+		imgcache = c;
+		if(old != null && old != c) {
+			old.RemoveOwner(this);
+		}
+	}
+	
+	/**
+		Returns cache used for decoded images.
+		@return cache object, null if disabled.
+	*/
+	public SFFCache GetImageCache() {
+		return imgcache;
+	}
+	
+	/**
+		Get 256 indexed colour image of specified index then convert it to BufferedImage
+		formatted in TYPE_BYTE_INDEXED. Colour model is made from palette of the image.
+		Uses 1/4 memory of ConvertImage() and palette can be changed by replacing
+		colour model. Only for PCX (sffv1) and RAW8, RLE8, RLE5, LZ5 and PNG8 (sffv2).
+		If image cache is enabled, returned image may be shared with other callers, do not modify it.
+		@param imgid Image index in order of sff subfiles.
+		@return BufferedImage, formatted in TYPE_BYTE_INDEXED.
+		@throws ArrayIndexOutOfBoundsException when imgid is greater than image count.
+		@throws IOException when IO Error occured.
+		@throws EOFException when image data is shorter than excepted.
+		@throws SFFDecodeException when image format was bad or not indexed colour.
+	*/
+	public BufferedImage ConvertImageIndexed(int imgid) throws IOException, SFFDecodeException {
+		return ConvertImageIndexed(imgid, null);
+	}
+	
+	/**
+		ConvertImageIndexed() but colour model is made from specified palette.
+		If pal[] is not complete (not 256 colours), palette of the image is used.
+		@param imgid Image index in order of sff subfiles.
+		@param pal[] palette data, ARGB8888 array.
+		@return BufferedImage, formatted in TYPE_BYTE_INDEXED.
+		@throws ArrayIndexOutOfBoundsException when imgid is greater than image count.
+		@throws IOException when IO Error occured.
+		@throws EOFException when image data is shorter than excepted.
+		@throws SFFDecodeException when image format was bad or not indexed colour.
+	*/
+	public BufferedImage ConvertImageIndexed(int imgid, int pal[]) throws IOException, SFFDecodeException {
+		SFFCache c = imgcache;
+		SFFMetrics m = SFFMetrics.Current;
+		int target = ResolveLink(imgid);
+		int key = ResolveDecoded(imgid); //Linked images share one entry unless sffv1 palette mode differs
+		if(m != null) {
+			CountRedirect(m, imgid);
+		}
+		if(c != null) {
+			Object r = c.Get(this, SFFCache.KIND_INDEXED, key, pal);
+			if(r != null) {
+				return (BufferedImage)r;
+			}
+		}
+		long t = m != null ? System.nanoTime() : 0;
+		SFFEvents.Decode ev = SFFEvents.BeginDecode();
+		BufferedImage r;
+		if(GetSFFVersion() == SFF_V1) {
+			r = DecodePCXIndexed(imgid, pal); //Pixels of destination, palette by mode of imgid
+		} else {
+			r = SFFv2DecodeIndexed(target, pal);
+		}
+		if(m != null) {
+			m.Decode(SFFv2GetImageType(target), System.nanoTime() - t);
+		}
+		EventDecode(ev, imgid, r, true);
+		if(c != null) {
+			c.Put(this, SFFCache.KIND_INDEXED, key, pal, r, (long)r.getWidth() * r.getHeight() );
+		}
+		return r;
+	}
+	
+	//Internal function to decode PNG8 as indexed colour image
+	BufferedImage SFFv2DecodePNGIndexed(byte data[], IndexColorModel cm, int imgid)
+		throws IOException, SFFDecodeException {
+		try {
+			int hdr[] = PNGDecoder.ReadHeader(data, 4);
+			if(hdr != null && hdr[3] == PNGDecoder.COLOR_INDEXED) {
+				BufferedImage r = new BufferedImage(hdr[0], hdr[1], BufferedImage.TYPE_BYTE_INDEXED, cm);
+				PNGDecoder.DecodeIndex(data, 4, ((DataBufferByte)r.getRaster().getDataBuffer() ).getData() );
+				return r;
+			}
+			//Use index data decoded by ImageIO, then replace colour model
+			BufferedImage png = DConv.fromPNG(data);
+			if(png != null && png.getType() == BufferedImage.TYPE_BYTE_INDEXED) {
+				return new BufferedImage(cm, png.getRaster(), false, null);
+			}
+			if(png != null && png.getColorModel() instanceof IndexColorModel) {
+				//Packed pixels (less than 8 bit), copy samples
+				BufferedImage r = new BufferedImage(png.getWidth(), png.getHeight(),
+					BufferedImage.TYPE_BYTE_INDEXED, cm);
+				r.getRaster().setRect(png.getRaster() );
+				return r;
+			}
+		} catch(EOFException ex) {
+			//Chunk runs past end of data, ImageIO can not decode it either
+			throw new EOFException(String.format("%d: PNG8 image data too short!", imgid) );
+		} catch(IOException ex) {
+			//fall through
+		}
+		throw new SFFDecodeException(String.format("%d: Bad formatted PNG8", imgid),
+			SFFDecodeException.BAD_SUBFILE, imgid);
+	}
+	
+	//Internal function to decode SFFv1 pcx as indexed colour image
+	BufferedImage DecodePCXIndexed(int imgid, int pal[]) throws IOException, SFFDecodeException {
+		byte data[] = GetRawImage(imgid);
+		int hdr[] = PCXParseHeader(data, imgid);
+		int dpal[] = PCXDecidePalette(imgid, pal);
+		BufferedImage r = new BufferedImage(hdr[0], hdr[1], BufferedImage.TYPE_BYTE_INDEXED,
+			DConv.toColorModel(dpal) );
+		byte dst[] = ((DataBufferByte)r.getRaster().getDataBuffer() ).getData();
+		DConv.pcxIndex(data, 128, dst, hdr[0], hdr[1], hdr[2]);
+		return r;
+	}
+	
+	//Internal function to decode sffv2 8bit image as indexed colour image, imgid must not be linked
+	BufferedImage SFFv2DecodeIndexed(int imgid, int pal[]) throws IOException, SFFDecodeException {
+		int imgw = SFFv2GetImageWidth(imgid);
+		int imgh = SFFv2GetImageHeight(imgid);
+		int imgc = SFFv2GetImageColorDepth(imgid);
+		int imgt = SFFv2GetImageType(imgid);
+		if(imgc != 8) {
+			throw new SFFDecodeException(
+				String.format("%d: Not an indexed colour image: type%d depth%d", imgid, imgt, imgc),
+				SFFDecodeException.BAD_SUBFILE, imgid);
+		}
+		IndexColorModel cm = DConv.toColorModel(SFFv2DecidePalette(imgid, pal) );
+		byte data[] = GetRawImage(imgid);
+		if(imgt == SFFV21_IMGTYPE_PNG8) {
+			return SFFv2DecodePNGIndexed(data, cm, imgid);
+		}
+		BufferedImage r = new BufferedImage(imgw, imgh, BufferedImage.TYPE_BYTE_INDEXED, cm);
+		byte dst[] = ((DataBufferByte)r.getRaster().getDataBuffer() ).getData();
+		if(imgt == SFFV2_IMGTYPE_RAW) {
+			//Raw 8bit is index array itself
+			System.arraycopy(data, 0, dst, 0, Math.min(data.length, dst.length) );
+		} else if(imgt == SFFV2_IMGTYPE_RLE8) {
+			SFFv2CheckRawSize(data, imgw, imgh, "RLE8", imgid);
+			DConv.rle8Index(data, 4, dst, 0, dst.length);
+		} else if(imgt == SFFV2_IMGTYPE_LZ5) {
+			SFFv2DecodeLZ5Index(data, dst, imgw, imgh, imgid);
+		} else if(imgt == SFFV2_IMGTYPE_RLE5) {
+			SFFv2DecodeRLE5Index(data, dst, imgw, imgh, imgid);
+		} else {
+			throw new SFFDecodeException(
+				String.format("%d: Bad format or unsupported: type%d depth%d", imgid, imgt, imgc),
+				SFFDecodeException.BAD_SUBFILE, imgid);
+		}
+		return r;
+	}
+	
+	/**
+		Decode all images in parallel using common ForkJoinPool.
+		@return BufferedImage array, in order of index.
+		@throws IOException when IO Error occured.
+		@throws SFFDecodeException when image format was bad.
+	*/
+	public BufferedImage[] DecodeAll() throws IOException, SFFDecodeException {
+		return DecodeAll(null, null);
+	}
+	
+	/**
+		Decode all images in parallel using specified executor.
+		@param ex Executor to run decode, common ForkJoinPool if null.
+		@param l progress listener, can be null.
+		@return BufferedImage array, in order of index.
+		@throws IOException when IO Error occured.
+		@throws SFFDecodeException when image format was bad.
+	*/
+	public BufferedImage[] DecodeAll(Executor ex, SFFProgressListener l)
+		throws IOException, SFFDecodeException {
+		return DecodeRange(0, GetImageCount(), ex, l);
+	}
+	
+	/**
+		Decode images from index start to end - 1 in parallel using common ForkJoinPool.
+		@param start first image index
+		@param end last image index + 1
+		@return BufferedImage array, element 0 is image at index start.
+		@throws ArrayIndexOutOfBoundsException when range is out of image count.
+		@throws IOException when IO Error occured.
+		@throws SFFDecodeException when image format was bad.
+	*/
+	public BufferedImage[] DecodeRange(int start, int end) throws IOException, SFFDecodeException {
+		return DecodeRange(start, end, null, null);
+	}
+	
+	/**
+		DecodeRange(int, int) but uses specified executor and progress listener.
+		@param start first image index
+		@param end last image index + 1
+		@param ex Executor to run decode, common ForkJoinPool if null.
+		@param l progress listener, can be null.
+		@return BufferedImage array, element 0 is image at index start.
+		@throws ArrayIndexOutOfBoundsException when range is out of image count.
+		@throws IOException when IO Error occured.
+		@throws SFFDecodeException when image format was bad.
+	*/
+	public BufferedImage[] DecodeRange(int start, int end, Executor ex, SFFProgressListener l)
+		throws IOException, SFFDecodeException {
+		if(start < 0 || end > GetImageCount() || start > end) {
+			throw new ArrayIndexOutOfBoundsException(
+				String.format("Range %d-%d is out of image count!", start, end) );
+		}
+		int ind[] = new int[end - start];
+		for(int i = 0; i < ind.length; i++) {
+			ind[i] = start + i;
+		}
+		return DecodeIndexes(ind, ex, l);
+	}
+	
+	/**
+		Decode all images having specified group number in parallel using common ForkJoinPool.
+		@param grp Group Number
+		@return BufferedImage array, in order of ListIndexesByGroupNo(grp) result.
+		@throws IOException when IO Error occured.
+		@throws SFFDecodeException when image format was bad.
+	*/
+	public BufferedImage[] DecodeGroup(int grp) throws IOException, SFFDecodeException {
+		return DecodeGroup(grp, null, null);
+	}
+	
+	/**
+		DecodeGroup(int) but uses specified executor and progress listener.
+		@param grp Group Number
+		@param ex Executor to run decode, common ForkJoinPool if null.
+		@param l progress listener, can be null.
+		@return BufferedImage array, in order of ListIndexesByGroupNo(grp) result.
+		@throws IOException when IO Error occured.
+		@throws SFFDecodeException when image format was bad.
+	*/
+	public BufferedImage[] DecodeGroup(int grp, Executor ex, SFFProgressListener l)
+		throws IOException, SFFDecodeException {
+		return DecodeIndexes(ListIndexesByGroupNo(grp), ex, l);
+	}
+	
+	/**
+		Decode images at specified indexes in parallel. Same as calling ConvertImage()
+		for each index, but decoding is distributed to executor.
+		If one of image failed to decode, remaining decode is cancelled and exception is thrown.
+		@param ind image indexes to decode
+		@param ex Executor to run decode, common ForkJoinPool if null.
+		@param l progress listener, can be null.
+		@return BufferedImage array, element i is image at index ind[i].
+		@throws ArrayIndexOutOfBoundsException when one of index is greater than image count.
+		@throws IOException when IO Error occured.
+		@throws SFFDecodeException when image format was bad.
+	*/
+	public BufferedImage[] DecodeIndexes(int ind[], Executor ex, SFFProgressListener l)
+		throws IOException, SFFDecodeException {
+		if(ex == null) {
+			ex = ForkJoinPool.commonPool();
+		}
+		final AtomicInteger done = new AtomicInteger();
+		ArrayList<FutureTask<BufferedImage>> tasks = new ArrayList<FutureTask<BufferedImage>>(ind.length);
+		for(int i = 0; i < ind.length; i++) {
+			final int imgid = ind[i];
+			FutureTask<BufferedImage> t = new FutureTask<BufferedImage>(() -> {
+				BufferedImage r = ConvertImage(imgid);
+				int d = done.incrementAndGet();
+				if(l != null) {
+					l.Progress(d, ind.length);
+				}
+				return r;
+			});
+			tasks.add(t);
+			ex.execute(t);
+		}
+		//Collect results in order of ind[]
+		BufferedImage r[] = new BufferedImage[ind.length];
+		try {
+			for(int i = 0; i < r.length; i++) {
+				r[i] = tasks.get(i).get();
+			}
+		} catch(ExecutionException e) {
+			for(FutureTask<BufferedImage> t : tasks) {
+				t.cancel(false);
+			}
+			Throwable c = e.getCause();
+			if(c instanceof IOException) { throw (IOException)c; }
+			if(c instanceof SFFDecodeException) { throw (SFFDecodeException)c; }
+			if(c instanceof RuntimeException) { throw (RuntimeException)c; }
+			if(c instanceof Error) { throw (Error)c; }
+			throw new IOException(c);
+		} catch(InterruptedException e) {
+			for(FutureTask<BufferedImage> t : tasks) {
+				t.cancel(false);
+			}
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while decoding images");
+		}
+		return r;
 	}
 	
 	//Internal function to decode sffv2 image data
@@ -648,42 +1801,19 @@ public class KumoSFFReader {
 		int imgc = SFFv2GetImageColorDepth(imgid);
 		int imgt = SFFv2GetImageType(imgid);
 		//Get palette (only for index colored image)
-		int dpal[] = null;
-		if(pal != null && pal.length == Math.pow(2, imgc) ) {
-			dpal = pal; //if pal[] is not null and has complete data
-		} else {
-			//Get associated palette if image has palette (colordepth >= 8 image does not have palette)
-			if(imgc == 8) {
-				int palind = SFFv2GetImagePaletteIndex(imgid);
-				dpal = SFFv2GetPalette(palind);
-			}
-		}
+		int dpal[] = SFFv2DecidePalette(imgid, pal);
 		byte data[] = GetRawImage(imgid); //Get raw image data
-		//RLE8, PNG24, PNG32 and RAW* formats are supported
+		//RLE8, RLE5, LZ5, PNG24, PNG32 and RAW* formats are supported
 		if(imgt == SFFV2_IMGTYPE_RAW) {
 			return SFFv2DecodeRawImage(data, imgw, imgh, imgc, dpal, imgid);
 		} else if(imgt == SFFV2_IMGTYPE_RLE8 && imgc == 8) {
 			return SFFv2DecodeRLE8Image(data, imgw, imgh, dpal, imgid);
+		} else if( (imgt == SFFV2_IMGTYPE_LZ5 || imgt == SFFV2_IMGTYPE_RLE5) && imgc == 8) {
+			return SFFv2DecodeIndexImage(data, imgw, imgh, imgt, dpal, imgid);
 		} else if( (imgt == SFFV21_IMGTYPE_PNG24 && imgc == 24) ||
-			(imgt == SFFV21_IMGTYPE_PNG32 && imgc == 32)) {
-			//PNG file format with image size uint32_t header
-			/*for(int i = 0; i < data.length; i++) {
-				System.out.printf("%02x ",data[i]);
-				if(i % 16 == 15) {
-					System.out.println();
-				}
-			}*/
-			return DConv.fromPNG(data);
-		} else if(imgt == SFFV21_IMGTYPE_PNG8 && imgc == 8) {
-			//PNG8, in sff, PLTE chunk will be Zero filled
-			//Must get palette and modify PLTE before proceeding
-			try {
-				return DConv.fromPNG(data, dpal);
-			} catch(Exception ex) {
-				throw new SFFDecodeException(
-				String.format("%d: Bad formatted PNG8", imgid),
-				SFFDecodeException.BAD_SUBFILE, imgid);
-			}
+			(imgt == SFFV21_IMGTYPE_PNG32 && imgc == 32) ||
+			(imgt == SFFV21_IMGTYPE_PNG8 && imgc == 8) ) {
+			return SFFv2DecodePNGImage(data, imgt, dpal, imgid);
 		} else {
 			throw new SFFDecodeException(
 				String.format("%d: Bad format or unsupported: type%d depth%d", imgid, imgt, imgc),
@@ -691,9 +1821,33 @@ public class KumoSFFReader {
 		}
 	}
 	
+	//Internal function to decide palette for sffv2 image, pal[] is used if it is complete.
+	//null if image has no palette (colordepth >= 8 image does not have palette)
+	int[] SFFv2DecidePalette(int imgid, int pal[]) throws IOException {
+		int imgc = SFFv2GetImageColorDepth(imgid);
+		if(pal != null && pal.length == Math.pow(2, imgc) ) {
+			return pal; //if pal[] is not null and has complete data
+		}
+		if(imgc == 8) {
+			return SFFv2PaletteData(SFFv2GetImagePaletteIndex(imgid) );
+		}
+		return null;
+	}
+	
 	//Internal function to decode SFFv1 pcx
 	BufferedImage DecodePCXImage(int imgid, int pal[]) throws IOException, SFFDecodeException {
 		byte data[] = GetRawImage(imgid);
+		int hdr[] = PCXParseHeader(data, imgid);
+		int dpal[] = PCXDecidePalette(imgid, pal);
+		//Decode RLE directly into raster data of BufferedImage
+		BufferedImage r = new BufferedImage(hdr[0], hdr[1], BufferedImage.TYPE_INT_ARGB);
+		int dst[] = ((DataBufferInt)r.getRaster().getDataBuffer() ).getData();
+		DConv.pcx(data, 128, dpal, dst, hdr[0], hdr[1], hdr[2]);
+		return r;
+	}
+	
+	//Internal function to check PCX header, returns {width, height, scanline}
+	int[] PCXParseHeader(byte data[], int imgid) throws IOException, SFFDecodeException {
 		if(data.length < 128) {
 			throw new EOFException(
 				String.format("index%d: PCX data is shorter than expected.", imgid) );
@@ -719,55 +1873,28 @@ public class KumoSFFReader {
 		int imgheight = maxy - miny + 1;
 		//offset 66 uint16_t single scanline size per plane
 		int scanline = (int)C.b2ui(data, 66, 2);
-		//Decide palette to use
+		return new int[] {imgwidth, imgheight, scanline};
+	}
+	
+	//Internal function to decide palette for PCX at imgid, pal[] is used if it is complete
+	int[] PCXDecidePalette(int imgid, int pal[]) throws IOException, SFFDecodeException {
 		int dpal[];
 		if(pal != null && pal.length == 256) {
 			dpal = pal; //If pal[] is specified and had 256 element
 		} else {
 			//if pal[] is incomplete, try to get palette data
 			if(!IsSharedPalette(imgid)) {
-				dpal = GetPalette(imgid); //Get palette in PCX
-			} else {
-				dpal = SharedPal; //Use shared palette
-			}
-		}
-		//Decode RLE and convert to BufferedImage
-		BufferedImage r = new BufferedImage(imgwidth, imgheight, BufferedImage.TYPE_INT_ARGB);
-		int runlen = -1;
-		int currentx = 0;
-		int currenty = 0;
-		for(int i = 0;i < data.length - 128; i++) {
-			int e = Byte.toUnsignedInt(data[i + 128]);
-			if(e < 0xc0 || runlen != -1) {
-				//pattern was not 0b11xxxxxx or previous octet was runlength
-				//assume runlength is 1 when previous octet was not runlength
-				if(runlen == -1) { runlen = 1; }
-				//add octet for runlength times
-				for(int j = 0; j < runlen; j++) {
-					//store pixel data while currentx is less than image width
-					if(currentx < imgwidth) {
-						r.setRGB(currentx, currenty, dpal[e]);
-					}
-					//advance currentx, if it is greater or equal than scanline,
-					//return it to 0. we can simplly use ++ because BufferedImage and pcx
-					//has the same coordinate system
-					currentx++;
-					if(currentx >= scanline) {
-						currentx = 0;
-						//advance y, if it exceeds imgheight, img is ready
-						currenty++;
-						if(currenty >= imgheight) { break; }
-					}
-				}
-				if(currenty >= imgheight) { break; } //break outer loop is image is ready
-				runlen = -1;
+				dpal = PCXPaletteData(imgid); //Get palette in PCX
 			} else {
-				//pattern 0b11xxxxxx or previous octet was not runlength
-				//set runlength
-				runlen = e - 0xc0;
+				dpal = PCXPaletteData(0); //Use shared palette (palette of index 0)
 			}
 		}
-		return r;
+		if(dpal == null) {
+			throw new SFFDecodeException(
+				String.format("index%d: PCX has no palette", imgid),
+				SFFDecodeException.MISSING_DATA, imgid);
+		}
+		return dpal;
 	}
 	
 	/**
@@ -778,13 +1905,12 @@ public class KumoSFFReader {
 		@throws ArrayIndexOutOfBoundsException when imgid is greater than image count.
 	*/
 	public int SFFv2GetPaletteLinkState(int palid) {
-		SFFPaletteElement e = palinfo[palid];
-		if(GetSFFVersion() == SFF_V2) {
+		if(GetSFFVersion() == SFF_V1) {
 			return -1;
 		}
 		//If palette length appars to 0, palette is linked one
-		if(e.pallength == 0) {
-			return e.linkid;
+		if(pal(palid, P_LENGTH) == 0) {
+			return pal(palid, P_LINK);
 		}
 		return -1;
 	}
@@ -800,7 +1926,7 @@ public class KumoSFFReader {
 		if(GetSFFVersion() == SFF_V1) {
 			return -1;
 		}
-		return palinfo[palid].numcols;
+		return pal(palid, P_NUMCOLS);
 	}
 	
 	/**
@@ -812,7 +1938,7 @@ public class KumoSFFReader {
 		if(GetSFFVersion() == SFF_V1) {
 			return 0;
 		}
-		return palinfo.length;
+		return palcount;
 	}
 	
 	/**
@@ -828,25 +1954,72 @@ public class KumoSFFReader {
 		if(GetSFFVersion() == SFF_V1) {
 			return null;
 		}
+		return SFFv2PaletteData(palid).clone(); //Cached one is shared, give copy
+	}
+	
+	//Internal function to get palette at specified index, returns cached (shared) array.
+	//Do not modify returned array.
+	int[] SFFv2PaletteData(int palid) throws IOException {
+		int a[] = palalias;
+		if(a != null && a[palid] != palid) {
+			return SFFv2PaletteData(a[palid]); //Same data as other palette, share one array
+		}
+		int pal[] = CachedPalette(palid);
+		if(pal != null) {
+			return pal;
+		}
 		int linkstate = SFFv2GetPaletteLinkState(palid);
 		if(linkstate != -1) {
-			return SFFv2GetPalette(linkstate);
+			//Follow link, then cache the same array for this index
+			int n = 0;
+			while(SFFv2GetPaletteLinkState(linkstate) != -1) {
+				linkstate = SFFv2GetPaletteLinkState(linkstate);
+				if(++n > palcount) {
+					throw new IOException(String.format("Palette%d: link is looping!", palid) );
+				}
+			}
+			pal = SFFv2PaletteData(linkstate);
+		} else {
+			//read palette
+			byte data[] = ReadData(pal(palid, P_OFFSET), pal(palid, P_LENGTH) );
+			SFFMetrics m = SFFMetrics.Current;
+			if(m != null) {
+				m.palettebytes.add(data.length);
+			}
+			//decode palette, it is RGBA8888 array
+			pal = new int[pal(palid, P_NUMCOLS)];
+			if(data.length < pal.length * 4) {
+				throw new EOFException(String.format("Palette%d: palette data is too short!", palid) );
+			}
+			for(int i = 0; i < pal.length; i++) {
+				//Converting RGBA8888 to ARGB8888
+				pal[i] = (int)C.b2uibe(data, i * 4, 3); //GET RGB888
+				//alpha=255 except index 0
+				if(i != 0) { pal[i] = pal[i] + 0xff000000; }
+			}
 		}
-		SFFPaletteElement e = palinfo[palid];
-		//seek to palette data offset
-		sff.seek(e.paloffset);
-		//read palette
-		byte data[] = new byte[e.pallength];
-		sff.readFully(data);
-		//decode palette, it is RGBA8888 array
-		int[] _r = new int[SFFv2GetPaletteSize(palid)];
-		for(int i = 0; i < _r.length; i++) {
-			//Converting RGBA8888 to ARGB8888
-			_r[i] = (int)C.b2uibe(data, i * 4, 3); //GET RGB888
-			//alpha=255 except index 0
-			if(i != 0) { _r[i] = _r[i] + 0xff000000; }
+		CachePalette(palid, pal);
+		return pal;
+	}
+	
+	//Get parsed palette of palcache slot id, null if not cached.
+	//Palettes are in shared image cache when sharedpal is set, so they are in its size limit.
+	int[] CachedPalette(int id) {
+		SFFCache c = imgcache;
+		if(sharedpal && c != null) {
+			return (int[])c.Get(this, SFFCache.KIND_PALETTE, id, null);
+		}
+		return palcache.get(id);
+	}
+	
+	//Store parsed palette of palcache slot id
+	void CachePalette(int id, int pal[]) {
+		SFFCache c = imgcache;
+		if(sharedpal && c != null) {
+			c.Put(this, SFFCache.KIND_PALETTE, id, null, pal, pal.length * 4L + 16);
+		} else {
+			palcache.set(id, pal);
 		}
-		return _r;
 	}
 	
 	/**
@@ -858,13 +2031,7 @@ public class KumoSFFReader {
 		@return image index that has specified group and image numbers, -1 if not found
 	*/
 	public int FindIndexByNumbers(int grp, int ino) {
-		for(int i = 0; i < GetImageCount(); i++) {
-			SFFElements e = sffinfo[i];
-			if(e.groupid == grp && e.imageid == ino) {
-				return i;
-			}
-		}
-		return -1;
+		return numindex.Find(grp, ino);
 	}
 	
 	/**
@@ -873,17 +2040,7 @@ public class KumoSFFReader {
 		@return image index array that has specified group number
 	*/
 	public int[] ListIndexesByGroupNo(int grp) {
-		int r[] = new int[0];
-		for(int i = 0;i < GetImageCount(); i++) {
-			SFFElements e = sffinfo[i];
-			if(e.groupid == grp) {
-				int t[] = new int[r.length + 1];
-				System.arraycopy(r, 0, t, 0, r.length);
-				t[r.length] = i;
-				r = t;
-			}
-		}
-		return r;
+		return numindex.List(grp);
 	}
 	
 	/**
@@ -0,0 +1,250 @@
+package kumotechmadlab.sffreader;
+
+import java.io.*;
+import java.util.zip.*;
+import kumotechmadlab.sffreader.*;
+
+/**
+	Small PNG decoder for PNG data embedded in sff v2.1.
+	IDAT chunks are inflated straight from source array into decoded pixels,
+	source data is not copied. Supports non interlaced indexed colour, RGB and RGBA PNG
+	(variants used in sff). Other PNG (16 bit, interlaced, greyscale) are left for ImageIO.
+*/
+public class PNGDecoder {
+	static final byte SIGN[] = {(byte)0x89, 'P', 'N', 'G', 0x0d, 0x0a, 0x1a, 0x0a};
+	/** RGB888 */
+	public static final int COLOR_RGB = 2;
+	/** Indexed colour */
+	public static final int COLOR_INDEXED = 3;
+	/** RGBA8888 */
+	public static final int COLOR_RGBA = 6;
+	
+	/**
+		Read IHDR of PNG in data[] (from index offs).
+		@param data array containing PNG
+		@param offs start index of PNG signature
+		@return {width, height, bit depth, colour type}, null if this decoder
+		can not decode the PNG (16 bit depth, interlaced or greyscale).
+		@throws IOException when data is not PNG
+	*/
+	public static int[] ReadHeader(byte data[], int offs) throws IOException {
+		if(data.length - offs < 33 || !C.compareBytes(data, offs, SIGN) ||
+			!C.compareBytes(data, offs + 12, new byte[] {'I', 'H', 'D', 'R'}) ) {
+			throw new IOException("Not a PNG data!");
+		}
+		int p = offs + 16;
+		int w = (int)C.b2uibe(data, p, 4);
+		int h = (int)C.b2uibe(data, p + 4, 4);
+		int depth = data[p + 8];
+		int ctype = data[p + 9];
+		int interlace = data[p + 12];
+		if(w <= 0 || h <= 0) {
+			throw new IOException("Bad PNG image size!");
+		}
+		boolean ok;
+		if(ctype == COLOR_INDEXED) {
+			ok = depth == 1 || depth == 2 || depth == 4 || depth == 8;
+		} else {
+			ok = depth == 8 && (ctype == COLOR_RGB || ctype == COLOR_RGBA);
+		}
+		if(!ok || interlace != 0) {
+			return null;
+		}
+		return new int[] {w, h, depth, ctype};
+	}
+	
+	/**
+		Decode indexed colour PNG in data[] (from index offs) to colour index array.
+		@param data array containing PNG
+		@param offs start index of PNG signature
+		@param dst destination, width * height elements
+		@throws IOException when data is bad or PNG is not indexed colour
+		@throws EOFException when image data ends before last line
+	*/
+	public static void DecodeIndex(byte data[], int offs, byte dst[]) throws IOException {
+		int hdr[] = ReadHeader(data, offs);
+		if(hdr == null || hdr[3] != COLOR_INDEXED) {
+			throw new IOException("PNG is not supported indexed colour!");
+		}
+		Decode(data, offs, hdr, dst, null, null);
+	}
+	
+	/**
+		Decode PNG in data[] (from index offs) to ARGB8888 array.
+		Indexed colour PNG is converted using pal[] (PLTE chunk is not used),
+		index not in pal[] is transparent.
+		@param data array containing PNG
+		@param offs start index of PNG signature
+		@param pal palette for indexed colour PNG, ARGB8888
+		@param dst destination, width * height elements
+		@throws IOException when data is bad or PNG is not supported
+		@throws EOFException when image data ends before last line
+	*/
+	public static void DecodeARGB(byte data[], int offs, int pal[], int dst[]) throws IOException {
+		int hdr[] = ReadHeader(data, offs);
+		if(hdr == null) {
+			throw new IOException("PNG is not supported!");
+		}
+		int lut[] = null;
+		if(hdr[3] == COLOR_INDEXED) {
+			if(pal == null) {
+				throw new IOException("No palette for indexed colour PNG!");
+			}
+			//256 entry lookup table, so index out of pal[] does not throw
+			lut = new int[256];
+			System.arraycopy(pal, 0, lut, 0, Math.min(pal.length, 256) );
+		}
+		Decode(data, offs, hdr, null, dst, lut);
+	}
+	
+	//Inflate and unfilter line by line, then store to idx[] or argb[]
+	static void Decode(byte data[], int offs, int hdr[], byte idx[], int argb[], int lut[])
+		throws IOException {
+		int w = hdr[0];
+		int h = hdr[1];
+		int depth = hdr[2];
+		int ctype = hdr[3];
+		int ch = 1; //channels
+		if(ctype == COLOR_RGB) { ch = 3; }
+		if(ctype == COLOR_RGBA) { ch = 4; }
+		int bpp = Math.max(1, ch * depth / 8); //octets per complete pixel, for filter
+		int stride = (int)( ( (long)w * ch * depth + 7) / 8);
+		byte cur[] = new byte[stride + 1]; //filter type + line
+		byte prev[] = new byte[stride + 1];
+		int trns = -1; //transparent colour of RGB PNG (tRNS chunk), -1 if none
+		Inflater inf = new Inflater();
+		try {
+			int p = offs + 8; //Next chunk
+			int y = 0;
+			int linepos = 0;
+			boolean idatseen = false;
+			while(y < h && p + 8 <= data.length) {
+				int len = (int)C.b2uibe(data, p, 4);
+				int type = (int)C.b2uibe(data, p + 4, 4);
+				int body = p + 8;
+				if(len < 0 || (long)body + len > data.length) {
+					throw new EOFException("PNG chunk is out of data!");
+				}
+				if(type == 0x49444154) { //IDAT
+					idatseen = true;
+					inf.setInput(data, body, len);
+					while(y < h) {
+						int n = inf.inflate(cur, linepos, cur.length - linepos);
+						linepos += n;
+						if(linepos == cur.length) {
+							Unfilter(cur, prev, bpp);
+							Store(cur, y, w, depth, ctype, trns, idx, argb, lut);
+							byte t[] = prev;
+							prev = cur;
+							cur = t;
+							linepos = 0;
+							y++;
+						} else if(n == 0) {
+							if(inf.needsDictionary() ) {
+								throw new IOException("PNG needs preset dictionary!");
+							}
+							if(inf.finished() ) {
+								throw new EOFException("PNG image data ended early!");
+							}
+							break; //needs next IDAT
+						}
+					}
+				} else if(type == 0x74524e53 && !idatseen && ctype == COLOR_RGB && len >= 6) {
+					//tRNS before IDAT, 16 bit R, G, B of transparent colour
+					trns = ( (data[body + 1] & 0xff) << 16) | ( (data[body + 3] & 0xff) << 8) |
+						(data[body + 5] & 0xff);
+				} else if(type == 0x49454e44) { //IEND
+					break;
+				}
+				p = body + len + 4; //Skip CRC (not checked, broken data is found by inflater)
+			}
+			if(y < h) {
+				//No IDAT, or data ended before last line
+				throw new EOFException("PNG image data ended early!");
+			}
+		} catch(DataFormatException ex) {
+			throw new IOException("Bad PNG image data!", ex);
+		} finally {
+			inf.end();
+		}
+	}
+	
+	//Undo PNG filter of line[] (line[0] is filter type) using previous line prev[]
+	static void Unfilter(byte line[], byte prev[], int bpp) throws IOException {
+		int f = line[0];
+		int n = line.length;
+		switch(f) {
+			case 0: //None
+				break;
+			case 1: //Sub
+				for(int i = 1 + bpp; i < n; i++) {
+					line[i] += line[i - bpp];
+				}
+				break;
+			case 2: //Up
+				for(int i = 1; i < n; i++) {
+					line[i] += prev[i];
+				}
+				break;
+			case 3: //Average
+				for(int i = 1; i < n; i++) {
+					int a = i > bpp ? line[i - bpp] & 0xff : 0;
+					line[i] += (a + (prev[i] & 0xff) ) >> 1;
+				}
+				break;
+			case 4: //Paeth
+				for(int i = 1; i < n; i++) {
+					int a = i > bpp ? line[i - bpp] & 0xff : 0;
+					int b = prev[i] & 0xff;
+					int c = i > bpp ? prev[i - bpp] & 0xff : 0;
+					int pa = Math.abs(b - c);
+					int pb = Math.abs(a - c);
+					int pc = Math.abs(a + b - 2 * c);
+					if(pa <= pb && pa <= pc) {
+						line[i] += a;
+					} else if(pb <= pc) {
+						line[i] += b;
+					} else {
+						line[i] += c;
+					}
+				}
+				break;
+			default:
+				throw new IOException(String.format("Bad PNG filter type %d!", f) );
+		}
+	}
+	
+	//Store unfiltered line (from line[1]) as line y of idx[] or argb[]
+	static void Store(byte line[], int y, int w, int depth, int ctype, int trns,
+		byte idx[], int argb[], int lut[]) {
+		int top = y * w;
+		if(ctype == COLOR_INDEXED) {
+			int ppo = 8 / depth; //pixels per octet
+			int mask = (1 << depth) - 1;
+			for(int x = 0; x < w; x++) {
+				int v;
+				if(depth == 8) {
+					v = line[x + 1] & 0xff;
+				} else {
+					int shift = 8 - depth - (x % ppo) * depth;
+					v = ( (line[x / ppo + 1] & 0xff) >> shift) & mask;
+				}
+				if(idx != null) {
+					idx[top + x] = (byte)v;
+				} else {
+					argb[top + x] = lut[v];
+				}
+			}
+		} else if(ctype == COLOR_RGB) {
+			for(int x = 0, i = 1; x < w; x++, i += 3) {
+				int c = ( (line[i] & 0xff) << 16) | ( (line[i + 1] & 0xff) << 8) | (line[i + 2] & 0xff);
+				argb[top + x] = c == trns ? c : c | 0xff000000;
+			}
+		} else { //COLOR_RGBA
+			for(int x = 0, i = 1; x < w; x++, i += 4) {
+				argb[top + x] = ( (line[i + 3] & 0xff) << 24) | ( (line[i] & 0xff) << 16) |
+					( (line[i + 1] & 0xff) << 8) | (line[i + 2] & 0xff);
+			}
+		}
+	}
+}
@@ -0,0 +1,388 @@
+package kumotechmadlab.sffreader;
+
+import java.io.*;
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+import java.util.concurrent.*;
+import kumotechmadlab.sffreader.*;
+
+/**
+	Sprite atlas, decoded images packed into few large pages (TYPE_INT_ARGB) for batch rendering.
+	Packing is skyline bottom-left, largest images first. Each entry has page number,
+	rectangle in page and image center axis. Linked images share one rectangle.
+	Images bigger than page size get their own page of their size.
+*/
+public class SFFAtlas {
+	/** Gap between images in pixels, so filtering does not bleed neighbour image */
+	public static final int PADDING = 1;
+	
+	BufferedImage pages[];
+	int eindex[]; //image index of entry
+	int epage[]; //page of entry
+	Rectangle erect[]; //rectangle of entry in page
+	int cx[]; //center x of entry
+	int cy[]; //center y of entry
+	int lookup[]; //entry of image index, -1 if image is not in atlas
+	
+	SFFAtlas() {
+	}
+	
+	/**
+		Pack all images in sff.
+		@param sff reader
+		@param pagesize page width and height in pixels
+		@return packed atlas
+		@throws IOException when IO Error occured.
+		@throws SFFDecodeException when image format was bad.
+	*/
+	public static SFFAtlas PackAll(KumoSFFReader sff, int pagesize) throws IOException, SFFDecodeException {
+		int ind[] = new int[sff.GetImageCount()];
+		for(int i = 0; i < ind.length; i++) {
+			ind[i] = i;
+		}
+		return PackIndexes(sff, ind, pagesize, null);
+	}
+	
+	/**
+		Pack images having group number grp.
+		@param sff reader
+		@param grp group number
+		@param pagesize page width and height in pixels
+		@return packed atlas
+		@throws IOException when IO Error occured.
+		@throws SFFDecodeException when image format was bad.
+	*/
+	public static SFFAtlas PackGroup(KumoSFFReader sff, int grp, int pagesize)
+		throws IOException, SFFDecodeException {
+		return PackIndexes(sff, sff.ListIndexesByGroupNo(grp), pagesize, null);
+	}
+	
+	/**
+		Pack images having group number grp[i] and image number ino[i].
+		Pairs not found in sff are skipped.
+		@param sff reader
+		@param grp group numbers
+		@param ino image numbers, same length as grp[]
+		@param pagesize page width and height in pixels
+		@return packed atlas
+		@throws IOException when IO Error occured.
+		@throws SFFDecodeException when image format was bad.
+	*/
+	public static SFFAtlas PackNumbers(KumoSFFReader sff, int grp[], int ino[], int pagesize)
+		throws IOException, SFFDecodeException {
+		int ind[] = new int[Math.min(grp.length, ino.length)];
+		int n = 0;
+		for(int i = 0; i < ind.length; i++) {
+			int r = sff.FindIndexByNumbers(grp[i], ino[i]);
+			if(r != -1) {
+				ind[n++] = r;
+			}
+		}
+		return PackIndexes(sff, Arrays.copyOf(ind, n), pagesize, null);
+	}
+	
+	/**
+		Pack images at indexes in ind[]. Images are decoded and pages are drawn in parallel.
+		@param sff reader
+		@param ind image indexes
+		@param pagesize page width and height in pixels
+		@param ex executor for decoding and drawing, null to use common ForkJoinPool.
+		@return packed atlas
+		@throws ArrayIndexOutOfBoundsException when index is out of image count.
+		@throws IOException when IO Error occured.
+		@throws SFFDecodeException when image format was bad.
+	*/
+	public static SFFAtlas PackIndexes(KumoSFFReader sff, int ind[], int pagesize, Executor ex)
+		throws IOException, SFFDecodeException {
+		if(pagesize <= PADDING) {
+			throw new IllegalArgumentException("Page size is too small!");
+		}
+		if(ex == null) {
+			ex = ForkJoinPool.commonPool();
+		}
+		//Linked images are packed once as their destination (unless sffv1 palette mode differs)
+		int dest[] = new int[ind.length];
+		int uniq[] = new int[ind.length];
+		int slot[] = new int[sff.GetImageCount()]; //position in uniq[] of image index
+		Arrays.fill(slot, -1);
+		int nuniq = 0;
+		for(int i = 0; i < ind.length; i++) {
+			int d = sff.ResolveDecoded(ind[i]);
+			if(slot[d] == -1) {
+				slot[d] = nuniq;
+				uniq[nuniq++] = d;
+			}
+			dest[i] = slot[d];
+		}
+		BufferedImage imgs[] = sff.DecodeIndexes(Arrays.copyOf(uniq, nuniq), ex, null);
+		//Place largest (by height, then width) first
+		Integer byheight[] = new Integer[nuniq];
+		for(int i = 0; i < nuniq; i++) {
+			byheight[i] = i;
+		}
+		Arrays.sort(byheight, (a, b) -> {
+			int c = imgs[b].getHeight() - imgs[a].getHeight();
+			return c != 0 ? c : imgs[b].getWidth() - imgs[a].getWidth();
+		});
+		ArrayList<Skyline> lines = new ArrayList<Skyline>();
+		ArrayList<Dimension> sizes = new ArrayList<Dimension>();
+		int upage[] = new int[nuniq];
+		Rectangle urect[] = new Rectangle[nuniq];
+		for(int u : byheight) {
+			int w = imgs[u].getWidth();
+			int h = imgs[u].getHeight();
+			if(w + PADDING > pagesize || h + PADDING > pagesize) {
+				//Too big, own page
+				upage[u] = sizes.size();
+				urect[u] = new Rectangle(0, 0, w, h);
+				lines.add(null);
+				sizes.add(new Dimension(w, h) );
+				continue;
+			}
+			Point p = null;
+			int pg;
+			for(pg = 0; pg < lines.size() && p == null; pg++) {
+				if(lines.get(pg) != null) {
+					p = lines.get(pg).Place(w + PADDING, h + PADDING);
+				}
+			}
+			if(p == null) {
+				Skyline s = new Skyline(pagesize, pagesize);
+				p = s.Place(w + PADDING, h + PADDING);
+				lines.add(s);
+				sizes.add(null);
+				pg = lines.size();
+			}
+			upage[u] = pg - 1;
+			urect[u] = new Rectangle(p.x, p.y, w, h);
+		}
+		//Shrink pages to used area
+		for(int pg = 0; pg < sizes.size(); pg++) {
+			if(sizes.get(pg) == null) {
+				sizes.set(pg, lines.get(pg).UsedSize() );
+			}
+		}
+		SFFAtlas r = new SFFAtlas();
+		r.pages = DrawPages(imgs, upage, urect, sizes, ex);
+		r.eindex = ind.clone();
+		r.epage = new int[ind.length];
+		r.erect = new Rectangle[ind.length];
+		r.cx = new int[ind.length];
+		r.cy = new int[ind.length];
+		r.lookup = new int[sff.GetImageCount()];
+		Arrays.fill(r.lookup, -1);
+		for(int i = 0; i < ind.length; i++) {
+			r.epage[i] = upage[dest[i]];
+			r.erect[i] = urect[dest[i]];
+			r.cx[i] = sff.GetX(ind[i]);
+			r.cy[i] = sff.GetY(ind[i]);
+			if(r.lookup[ind[i]] == -1) {
+				r.lookup[ind[i]] = i;
+			}
+		}
+		return r;
+	}
+	
+	//Draw images to pages, one task per page
+	static BufferedImage[] DrawPages(BufferedImage imgs[], int upage[], Rectangle urect[],
+		ArrayList<Dimension> sizes, Executor ex) throws IOException {
+		int npage = sizes.size();
+		ArrayList<FutureTask<BufferedImage>> tasks = new ArrayList<FutureTask<BufferedImage>>(npage);
+		for(int pg = 0; pg < npage; pg++) {
+			final int page = pg;
+			final Dimension d = sizes.get(pg);
+			FutureTask<BufferedImage> t = new FutureTask<BufferedImage>(() -> {
+				BufferedImage r = new BufferedImage(d.width, d.height, BufferedImage.TYPE_INT_ARGB);
+				for(int u = 0; u < imgs.length; u++) {
+					if(upage[u] == page) {
+						Rectangle c = urect[u];
+						int px[] = imgs[u].getRGB(0, 0, c.width, c.height, null, 0, c.width);
+						r.setRGB(c.x, c.y, c.width, c.height, px, 0, c.width);
+					}
+				}
+				return r;
+			});
+			tasks.add(t);
+			ex.execute(t);
+		}
+		BufferedImage r[] = new BufferedImage[npage];
+		try {
+			for(int i = 0; i < npage; i++) {
+				r[i] = tasks.get(i).get();
+			}
+		} catch(ExecutionException e) {
+			Throwable c = e.getCause();
+			if(c instanceof RuntimeException) { throw (RuntimeException)c; }
+			if(c instanceof Error) { throw (Error)c; }
+			throw new IOException(c);
+		} catch(InterruptedException e) {
+			for(FutureTask<BufferedImage> t : tasks) {
+				t.cancel(false);
+			}
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while drawing atlas pages");
+		}
+		return r;
+	}
+	
+	//Skyline of one page: top edges of placed images as segments from left to right
+	static final class Skyline {
+		final int width;
+		final int height;
+		final ArrayList<int[]> segs = new ArrayList<int[]>(); //{x, y, width}
+		int usedw = 0;
+		int usedh = 0;
+		
+		Skyline(int width, int height) {
+			this.width = width;
+			this.height = height;
+			segs.add(new int[] {0, 0, width});
+		}
+		
+		//Place w x h rectangle at lowest (smallest y, then smallest x) position, null if no room
+		Point Place(int w, int h) {
+			int besti = -1;
+			int bestx = 0;
+			int besty = Integer.MAX_VALUE;
+			for(int i = 0; i < segs.size(); i++) {
+				int x = segs.get(i)[0];
+				if(x + w > width) {
+					break;
+				}
+				//y is highest segment under rectangle
+				int y = 0;
+				int right = 0;
+				for(int j = i; right < w; j++) {
+					int s[] = segs.get(j);
+					y = Math.max(y, s[1]);
+					right = s[0] + s[2] - x;
+				}
+				if(y + h <= height && y < besty) {
+					besti = i;
+					bestx = x;
+					besty = y;
+				}
+			}
+			if(besti == -1) {
+				return null;
+			}
+			//Replace covered segments with new one
+			int top = besty + h;
+			int end = bestx + w;
+			int i = besti;
+			while(i < segs.size() && segs.get(i)[0] < end) {
+				int s[] = segs.get(i);
+				int send = s[0] + s[2];
+				if(send <= end) {
+					segs.remove(i);
+				} else {
+					s[2] = send - end;
+					s[0] = end;
+					break;
+				}
+			}
+			segs.add(besti, new int[] {bestx, top, w});
+			//Merge same height neighbours
+			for(int j = segs.size() - 1; j > 0; j--) {
+				int a[] = segs.get(j - 1);
+				int b[] = segs.get(j);
+				if(a[1] == b[1]) {
+					a[2] += b[2];
+					segs.remove(j);
+				}
+			}
+			usedw = Math.max(usedw, end);
+			usedh = Math.max(usedh, top);
+			return new Point(bestx, besty);
+		}
+		
+		//Size of area having images
+		Dimension UsedSize() {
+			return new Dimension(Math.max(1, usedw), Math.max(1, usedh) );
+		}
+	}
+	
+	/**
+		Returns page count.
+		@return page count
+	*/
+	public int GetPageCount() {
+		return pages.length;
+	}
+	
+	/**
+		Returns page image. Pages are shared, do not modify them.
+		@param page page number
+		@return TYPE_INT_ARGB page image
+		@throws ArrayIndexOutOfBoundsException when page is out of page count.
+	*/
+	public BufferedImage GetPage(int page) {
+		return pages[page];
+	}
+	
+	/**
+		Returns entry count, same as length of packed index list.
+		@return entry count
+	*/
+	public int GetEntryCount() {
+		return eindex.length;
+	}
+	
+	/**
+		Find entry of image index imgid.
+		@param imgid image index in sff
+		@return entry number, -1 if image is not in atlas
+	*/
+	public int Find(int imgid) {
+		if(imgid < 0 || imgid >= lookup.length) {
+			return -1;
+		}
+		return lookup[imgid];
+	}
+	
+	/**
+		Returns image index of entry.
+		@param e entry number
+		@return image index in sff
+	*/
+	public int GetIndex(int e) {
+		return eindex[e];
+	}
+	
+	/**
+		Returns page number of entry.
+		@param e entry number
+		@return page number
+	*/
+	public int GetPageNumber(int e) {
+		return epage[e];
+	}
+	
+	/**
+		Returns rectangle of entry in its page. Linked images return the same rectangle.
+		@param e entry number
+		@return rectangle in page
+	*/
+	public Rectangle GetRect(int e) {
+		return new Rectangle(erect[e]);
+	}
+	
+	/**
+		Returns image center x of entry (same as KumoSFFReader.GetX()).
+		@param e entry number
+		@return center x
+	*/
+	public int GetX(int e) {
+		return cx[e];
+	}
+	
+	/**
+		Returns image center y of entry (same as KumoSFFReader.GetY()).
+		@param e entry number
+		@return center y
+	*/
+	public int GetY(int e) {
+		return cy[e];
+	}
+}
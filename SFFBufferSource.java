@@ -0,0 +1,75 @@
+package kumotechmadlab.sffreader;
+
+import java.io.*;
+import java.nio.*;
+import kumotechmadlab.sffreader.*;
+
+/**
+	SFFSource reading sff in memory (ByteBuffer, byte array or whole InputStream).
+	Data is not copied except InputStream, do not modify it while reading.
+*/
+public class SFFBufferSource implements SFFSource {
+	ByteBuffer buf;
+	
+	/**
+		Use data from position to limit of b.
+		@param b sff data
+	*/
+	public SFFBufferSource(ByteBuffer b) {
+		buf = b.slice().asReadOnlyBuffer();
+	}
+	
+	/**
+		Use data in byte array.
+		@param data sff data
+	*/
+	public SFFBufferSource(byte data[]) {
+		this(ByteBuffer.wrap(data) );
+	}
+	
+	/**
+		Read whole stream into memory and use it. Stream is not closed.
+		@param in stream having sff data, e.g. entry of zip file
+		@throws IOException when IO Error occured
+	*/
+	public SFFBufferSource(InputStream in) throws IOException {
+		this(ReadAll(in) );
+	}
+	
+	//Read stream until end
+	static byte[] ReadAll(InputStream in) throws IOException {
+		ByteArrayOutputStream o = new ByteArrayOutputStream();
+		byte b[] = new byte[65536];
+		int n;
+		while( (n = in.read(b) ) != -1) {
+			o.write(b, 0, n);
+		}
+		return o.toByteArray();
+	}
+	
+	@Override
+	public long Size() {
+		return buf.limit();
+	}
+	
+	@Override
+	public void Read(long offs, ByteBuffer dst) throws IOException {
+		int len = dst.remaining();
+		if(offs < 0 || len > buf.limit() - offs) {
+			throw new EOFException(String.format("Reading %d octets at %d is out of data!", len, offs) );
+		}
+		ByteBuffer b = buf.duplicate(); //Do not touch position of shared buffer
+		b.position( (int)offs);
+		b.limit( (int)offs + len);
+		dst.put(b);
+	}
+	
+	@Override
+	public ByteBuffer Buffer() {
+		return buf;
+	}
+	
+	@Override
+	public void close() {
+	}
+}
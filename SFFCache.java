@@ -0,0 +1,187 @@
+package kumotechmadlab.sffreader;
+
+import java.util.*;
+
+/**
+	Size limited LRU cache for decoded images.
+	Least recently used entries are evicted when total size exceeds the limit.
+	One cache can be shared between multiple KumoSFFReader, then the limit is
+	applied to all of them. Readers in SFFReaderPool also keep palettes in it.
+*/
+public class SFFCache {
+	//Kinds of cached data
+	static final int KIND_IMAGE = 0;
+	static final int KIND_INDEXED = 1;
+	static final int KIND_PALETTE = 2;
+	
+	long MaxSize;
+	long CurrentSize = 0;
+	long Hits = 0;
+	long Misses = 0;
+	long Evictions = 0;
+	final LinkedHashMap<Key, Entry> map = new LinkedHashMap<Key, Entry>(64, 0.75f, true);
+	
+	//Cache key: owner (reader), kind, index and variant (palette array), owner and variant
+	//are compared by identity.
+	static final class Key {
+		final Object owner;
+		final int kind;
+		final int id;
+		final Object variant;
+		
+		Key(Object owner, int kind, int id, Object variant) {
+			this.owner = owner;
+			this.kind = kind;
+			this.id = id;
+			this.variant = variant;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Key)) { return false; }
+			Key k = (Key)o;
+			return k.owner == owner && k.kind == kind && k.id == id && k.variant == variant;
+		}
+		
+		@Override
+		public int hashCode() {
+			int h = System.identityHashCode(owner);
+			h = h * 31 + kind;
+			h = h * 31 + id;
+			return h * 31 + System.identityHashCode(variant);
+		}
+	}
+	
+	static final class Entry {
+		final Object value;
+		final long size;
+		
+		Entry(Object value, long size) {
+			this.value = value;
+			this.size = size;
+		}
+	}
+	
+	/**
+		Create new cache.
+		@param maxsize size limit in octets
+	*/
+	public SFFCache(long maxsize) {
+		MaxSize = maxsize;
+	}
+	
+	//Get cached value, null if not cached
+	synchronized Object Get(Object owner, int kind, int id, Object variant) {
+		Entry e = map.get(new Key(owner, kind, id, variant) );
+		SFFMetrics m = kind == KIND_PALETTE ? null : SFFMetrics.Current; //JMX counts decoded images only
+		if(e == null) {
+			Misses++;
+			if(m != null) { m.cachemisses.increment(); }
+			return null;
+		}
+		Hits++;
+		if(m != null) { m.cachehits.increment(); }
+		return e.value;
+	}
+	
+	//Store value, value bigger than limit will not be stored.
+	synchronized void Put(Object owner, int kind, int id, Object variant, Object value, long size) {
+		if(size > MaxSize) { return; }
+		Entry old = map.put(new Key(owner, kind, id, variant), new Entry(value, size) );
+		if(old != null) {
+			CurrentSize -= old.size;
+		}
+		CurrentSize += size;
+		Trim();
+	}
+	
+	//Remove all entries of specified owner
+	synchronized void RemoveOwner(Object owner) {
+		Iterator<Map.Entry<Key, Entry>> it = map.entrySet().iterator();
+		while(it.hasNext() ) {
+			Map.Entry<Key, Entry> e = it.next();
+			if(e.getKey().owner == owner) {
+				CurrentSize -= e.getValue().size;
+				it.remove();
+			}
+		}
+	}
+	
+	//Evict least recently used entries until size is in limit
+	void Trim() {
+		SFFMetrics m = SFFMetrics.Current;
+		Iterator<Entry> it = map.values().iterator();
+		while(CurrentSize > MaxSize && it.hasNext() ) {
+			Entry e = it.next();
+			CurrentSize -= e.size;
+			it.remove();
+			Evictions++;
+			if(m != null) { m.evictions.increment(); }
+		}
+	}
+	
+	/**
+		Change size limit. Entries are evicted if current size exceeds new limit.
+		@param maxsize size limit in octets
+	*/
+	public synchronized void SetMaxSize(long maxsize) {
+		MaxSize = maxsize;
+		Trim();
+	}
+	
+	/**
+		Returns size limit.
+		@return size limit in octets
+	*/
+	public synchronized long GetMaxSize() {
+		return MaxSize;
+	}
+	
+	/**
+		Returns total size of cached entries.
+		@return current size in octets
+	*/
+	public synchronized long GetSize() {
+		return CurrentSize;
+	}
+	
+	/**
+		Returns cached entry count.
+		@return entry count
+	*/
+	public synchronized int GetEntryCount() {
+		return map.size();
+	}
+	
+	/**
+		Returns how many times cached data was found.
+		@return hit count
+	*/
+	public synchronized long GetHitCount() {
+		return Hits;
+	}
+	
+	/**
+		Returns how many times cached data was not found.
+		@return miss count
+	*/
+	public synchronized long GetMissCount() {
+		return Misses;
+	}
+	
+	/**
+		Returns how many entries were evicted because of size limit.
+		@return eviction count
+	*/
+	public synchronized long GetEvictionCount() {
+		return Evictions;
+	}
+	
+	/**
+		Remove all entries. Statistics are not reset.
+	*/
+	public synchronized void Clear() {
+		map.clear();
+		CurrentSize = 0;
+	}
+}
@@ -0,0 +1,49 @@
+package kumotechmadlab.sffreader;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import kumotechmadlab.sffreader.*;
+
+/**
+	SFFSource reading SeekableByteChannel, e.g. Files.newByteChannel() of file in zip FileSystem.
+	Channel position is shared, so reads are serialized.
+	Use SFFFileSource for plain files, it reads in parallel.
+*/
+public class SFFChannelSource implements SFFSource {
+	SeekableByteChannel ch;
+	
+	/**
+		Use channel, it is closed when source is closed.
+		@param ch channel having sff data
+	*/
+	public SFFChannelSource(SeekableByteChannel ch) {
+		this.ch = ch;
+	}
+	
+	@Override
+	public synchronized long Size() throws IOException {
+		return ch.size();
+	}
+	
+	@Override
+	public synchronized void Read(long offs, ByteBuffer dst) throws IOException {
+		int len = dst.remaining();
+		ch.position(offs);
+		while(dst.hasRemaining() ) {
+			if(ch.read(dst) < 0) {
+				throw new EOFException(String.format("Reading %d octets at %d is out of data!", len, offs) );
+			}
+		}
+	}
+	
+	@Override
+	public ByteBuffer Buffer() {
+		return null;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		ch.close();
+	}
+}
@@ -0,0 +1,86 @@
+package kumotechmadlab.sffreader;
+
+import java.awt.*;
+
+/**
+	Options of KumoSFFReader.ConvertImageWithOptions(): clip rectangle,
+	horizontal / vertical flip and palette. Default options decode whole image as is.
+*/
+public class SFFDecodeOptions {
+	Rectangle Clip = null;
+	boolean FlipH = false;
+	boolean FlipV = false;
+	int Palette[] = null;
+	
+	/**
+		Create default options (no clip, no flip, palette of the image).
+	*/
+	public SFFDecodeOptions() {
+	}
+	
+	/**
+		Decode only part of image. Rectangle is in coordinates of the image before flipping,
+		and it is clipped to the image.
+		@param r clip rectangle (copied), null to decode whole image
+	*/
+	public void SetClip(Rectangle r) {
+		Clip = r == null ? null : new Rectangle(r);
+	}
+	
+	/**
+		SetClip(Rectangle) but accepts position and size.
+	*/
+	public void SetClip(int x, int y, int w, int h) {
+		Clip = new Rectangle(x, y, w, h);
+	}
+	
+	/**
+		Returns clip rectangle.
+		@return copy of clip rectangle, null if whole image is decoded
+	*/
+	public Rectangle GetClip() {
+		return Clip == null ? null : new Rectangle(Clip);
+	}
+	
+	/**
+		Mirror decoded image.
+		@param h true to flip horizontally (left and right)
+		@param v true to flip vertically (top and bottom)
+	*/
+	public void SetFlip(boolean h, boolean v) {
+		FlipH = h;
+		FlipV = v;
+	}
+	
+	/**
+		Returns true if image is flipped horizontally.
+		@return horizontal flip
+	*/
+	public boolean IsFlipH() {
+		return FlipH;
+	}
+	
+	/**
+		Returns true if image is flipped vertically.
+		@return vertical flip
+	*/
+	public boolean IsFlipV() {
+		return FlipV;
+	}
+	
+	/**
+		Use specified palette like ConvertImage(int, int[]).
+		@param pal ARGB8888 palette, null to use palette of the image
+	*/
+	public void SetPalette(int pal[]) {
+		Palette = pal;
+	}
+	
+	/**
+		Returns palette to use.
+		@return palette, null if palette of the image is used
+	*/
+	public int[] GetPalette() {
+		return Palette;
+	}
+}
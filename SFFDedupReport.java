@@ -0,0 +1,57 @@
+package kumotechmadlab.sffreader;
+
+/**
+	Result of KumoSFFReader.Deduplicate().
+	Duplicates are images and palettes having the same data as another one without being linked to it.
+*/
+public class SFFDedupReport {
+	final int images;
+	final int palettes;
+	final long imagebytes;
+	final long palettebytes;
+	
+	SFFDedupReport(int images, long imagebytes, int palettes, long palettebytes) {
+		this.images = images;
+		this.imagebytes = imagebytes;
+		this.palettes = palettes;
+		this.palettebytes = palettebytes;
+	}
+	
+	/**
+		Returns count of duplicate images, they are treated as linked images.
+		@return duplicate image count
+	*/
+	public int GetImageCount() {
+		return images;
+	}
+	
+	/**
+		Returns total data length of duplicate images.
+		@return saved octets
+	*/
+	public long GetImageBytes() {
+		return imagebytes;
+	}
+	
+	/**
+		Returns count of duplicate palettes (sffv2), they are treated as linked palettes.
+		@return duplicate palette count
+	*/
+	public int GetPaletteCount() {
+		return palettes;
+	}
+	
+	/**
+		Returns total data length of duplicate palettes.
+		@return saved octets
+	*/
+	public long GetPaletteBytes() {
+		return palettebytes;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%d duplicate images (%d octets), %d duplicate palettes (%d octets)",
+			images, imagebytes, palettes, palettebytes);
+	}
+}
@@ -1,7 +0,0 @@
-package kumotechmadlab.sffreader;
-
-public class SFFElements {
-	public int x, y, groupid, imageid, linkid, imgoffset, imglength, imgwidth, imgheight;
-	public int imgtype, colordepth, paletteid, flags;
-	public boolean shared;
-}
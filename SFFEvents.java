@@ -0,0 +1,111 @@
+package kumotechmadlab.sffreader;
+
+import jdk.jfr.*;
+
+/**
+	Java Flight Recorder events of readers, to find slow sff and sprites in a recording.
+	Events are recorded only when a recording enables them and they took longer than threshold.
+	Thresholds can be changed per event in recording settings, e.g.
+	kumotechmadlab.sffreader.Decode#threshold=5 ms in .jfc file.
+*/
+public class SFFEvents {
+	//Event types, to skip creating events while no recording enables them
+	static final EventType OPEN = EventType.getEventType(Open.class);
+	static final EventType READ = EventType.getEventType(Read.class);
+	static final EventType DECODE = EventType.getEventType(Decode.class);
+	
+	/** Opening sff (parsing headers or loading sidecar index) */
+	@Name("kumotechmadlab.sffreader.Open")
+	@Label("SFF Open")
+	@Category("SFF Reader")
+	@Description("Opening sff, parsing headers or loading sidecar index")
+	@Threshold("0 ms")
+	@StackTrace(false)
+	public static class Open extends Event {
+		@Label("File")
+		public String file;
+		@Label("SFF Version")
+		public int version;
+		@Label("Images")
+		public int images;
+		@Label("Palettes")
+		public int palettes;
+		@Label("Sidecar")
+		public boolean sidecar;
+	}
+	
+	/** Common fields of image events */
+	@Category("SFF Reader")
+	@StackTrace(false)
+	public abstract static class Image extends Event {
+		@Label("File")
+		public String file;
+		@Label("Index")
+		public int index;
+		@Label("Group Number")
+		public int group;
+		@Label("Image Number")
+		public int image;
+		@Label("Image Type")
+		@Description("SFFV2_IMGTYPE_*, -1 for PCX (sffv1)")
+		public int type;
+		@Label("Colour Depth")
+		public int depth;
+		@Label("Data Size")
+		@DataAmount
+		public int size;
+	}
+	
+	/** Reading image data (GetRawImage()) */
+	@Name("kumotechmadlab.sffreader.Read")
+	@Label("SFF Image Read")
+	@Description("Reading image data of sprite")
+	@Threshold("1 ms")
+	public static class Read extends Image {
+	}
+	
+	/** Decoding image (ConvertImage() and ConvertImageIndexed() not found in cache) */
+	@Name("kumotechmadlab.sffreader.Decode")
+	@Label("SFF Image Decode")
+	@Description("Decoding sprite, including reading its data")
+	@Threshold("1 ms")
+	public static class Decode extends Image {
+		@Label("Width")
+		public int width;
+		@Label("Height")
+		public int height;
+		@Label("Indexed")
+		@Description("Decoded to TYPE_BYTE_INDEXED by ConvertImageIndexed()")
+		public boolean indexed;
+	}
+	
+	//Begun open event, null if it is not enabled
+	static Open BeginOpen() {
+		if(!OPEN.isEnabled() ) {
+			return null;
+		}
+		Open e = new Open();
+		e.begin();
+		return e;
+	}
+	
+	//Begun read event, null if it is not enabled
+	static Read BeginRead() {
+		if(!READ.isEnabled() ) {
+			return null;
+		}
+		Read e = new Read();
+		e.begin();
+		return e;
+	}
+	
+	//Begun decode event, null if it is not enabled
+	static Decode BeginDecode() {
+		if(!DECODE.isEnabled() ) {
+			return null;
+		}
+		Decode e = new Decode();
+		e.begin();
+		return e;
+	}
+}
@@ -0,0 +1,158 @@
+package kumotechmadlab.sffreader;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.concurrent.locks.*;
+import kumotechmadlab.sffreader.*;
+
+/**
+	SFFSource reading file. Reads are positional, so threads do not share file pointer.
+	Optionally whole file is memory mapped.
+	File handle can be suspended (closed) while idle, it is reopened at next read.
+*/
+public class SFFFileSource implements SFFSource {
+	final File file;
+	RandomAccessFile raf; //null while suspended
+	FileChannel ch; //null while suspended
+	MappedByteBuffer map = null; //Whole file mapping, null if not mapped
+	long size;
+	boolean closed = false;
+	volatile long LastUse = System.nanoTime(); //Time of last read, for choosing idle source
+	Runnable OnReopen = null; //Called after handle was reopened (outside of lock)
+	final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(); //read: reading, write: open/close
+	
+	/**
+		Open file.
+		@param f file to open
+		@param mapped true to memory map whole file (files bigger than 2GB are not mapped)
+		@throws IOException when IO Error occured
+	*/
+	public SFFFileSource(File f, boolean mapped) throws IOException {
+		file = f;
+		raf = new RandomAccessFile(f, "r"); //open as binary read
+		ch = raf.getChannel();
+		try {
+			size = ch.size();
+			if(mapped && size <= Integer.MAX_VALUE) {
+				map = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			}
+		} catch(IOException | RuntimeException ex) {
+			raf.close(); //Do not leak file handle when open failed
+			throw ex;
+		}
+	}
+	
+	@Override
+	public long Size() {
+		return size;
+	}
+	
+	@Override
+	public void Read(long offs, ByteBuffer dst) throws IOException {
+		LastUse = System.nanoTime();
+		int len = dst.remaining();
+		while(true) {
+			lock.readLock().lock();
+			try {
+				if(ch != null) {
+					while(dst.hasRemaining() ) {
+						if(ch.read(dst, offs + len - dst.remaining() ) < 0) {
+							throw new EOFException(
+								String.format("Reading %d octets at %d is out of file!", len, offs) );
+						}
+					}
+					return;
+				}
+			} finally {
+				lock.readLock().unlock();
+			}
+			Reopen();
+		}
+	}
+	
+	//Reopen suspended handle
+	void Reopen() throws IOException {
+		lock.writeLock().lock();
+		try {
+			if(closed) {
+				throw new ClosedChannelException();
+			}
+			if(ch != null) {
+				return; //Other thread reopened
+			}
+			raf = new RandomAccessFile(file, "r");
+			ch = raf.getChannel();
+		} finally {
+			lock.writeLock().unlock();
+		}
+		Runnable r = OnReopen;
+		if(r != null) {
+			r.run();
+		}
+	}
+	
+	/**
+		Close file handle while idle, it is reopened at next read.
+		Mapping is kept, so mapped source does not need handle at all.
+		Does nothing if source is being read now.
+		@return true if handle is closed now
+	*/
+	public boolean Suspend() {
+		if(!lock.writeLock().tryLock() ) {
+			return false; //In use
+		}
+		try {
+			if(ch != null) {
+				try { raf.close(); } catch(IOException ex) {}
+				raf = null;
+				ch = null;
+			}
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+		Returns true if file handle is open (not suspended or closed).
+		@return true if handle is open
+	*/
+	public boolean IsOpen() {
+		lock.readLock().lock();
+		try {
+			return ch != null;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+		Returns opened file.
+		@return file
+	*/
+	public File GetFile() {
+		return file;
+	}
+	
+	@Override
+	public ByteBuffer Buffer() {
+		return map;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		lock.writeLock().lock();
+		try {
+			closed = true;
+			map = null; //Mapping is released when garbage collected
+			if(raf != null) {
+				raf.close();
+			}
+			raf = null;
+			ch = null;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package kumotechmadlab.sffreader;
+
+import java.lang.management.*;
+import java.util.concurrent.atomic.*;
+import javax.management.*;
+import kumotechmadlab.sffreader.*;
+
+/**
+	Opt-in instrumentation of all readers, exposed as JMX MBean
+	kumotechmadlab.sffreader:type=SFFMetrics after Enable().
+	Readers check one static field and skip all measurement while disabled.
+	Counters are LongAdder, so readers in many threads do not contend.
+*/
+public class SFFMetrics implements SFFMetricsMBean {
+	/** JMX object name */
+	public static final String NAME = "kumotechmadlab.sffreader:type=SFFMetrics";
+	//Image types of decode statistics, see Slot()
+	static final String TYPES[] = {"PCX", "RAW", "RLE8", "RLE5", "LZ5", "PNG8", "PNG24", "PNG32", "OTHER"};
+	static final int BUCKETS = 40; //2^40 ns is about 18 minutes
+	static volatile SFFMetrics Current = null; //Enabled metrics, null if disabled
+	
+	final LongAdder opens = new LongAdder();
+	final LongAdder opennanos = new LongAdder();
+	final LongAdder imagebytes = new LongAdder();
+	final LongAdder palettebytes = new LongAdder();
+	final LongAdder links = new LongAdder();
+	final LongAdder aliases = new LongAdder();
+	final LongAdder cachehits = new LongAdder();
+	final LongAdder cachemisses = new LongAdder();
+	final LongAdder evictions = new LongAdder();
+	final LongAdder decodes[] = new LongAdder[TYPES.length];
+	final LongAdder decodenanos[] = new LongAdder[TYPES.length];
+	final LongAdder histogram[][] = new LongAdder[TYPES.length][BUCKETS];
+	
+	SFFMetrics() {
+		for(int i = 0; i < TYPES.length; i++) {
+			decodes[i] = new LongAdder();
+			decodenanos[i] = new LongAdder();
+			for(int j = 0; j < BUCKETS; j++) {
+				histogram[i][j] = new LongAdder();
+			}
+		}
+	}
+	
+	/**
+		Start collecting metrics of all readers and register MBean to platform MBeanServer.
+		Does nothing but returning current one if already enabled.
+		@return enabled metrics
+		@throws IllegalStateException when MBean could not be registered
+	*/
+	public static synchronized SFFMetrics Enable() {
+		SFFMetrics m = Current;
+		if(m != null) {
+			return m;
+		}
+		m = new SFFMetrics();
+		try {
+			MBeanServer s = ManagementFactory.getPlatformMBeanServer();
+			ObjectName n = new ObjectName(NAME);
+			if(s.isRegistered(n) ) {
+				s.unregisterMBean(n); //Left by other class loader
+			}
+			s.registerMBean(m, n);
+		} catch(JMException ex) {
+			throw new IllegalStateException("Could not register SFFMetrics MBean", ex);
+		}
+		Current = m;
+		return m;
+	}
+	
+	/**
+		Stop collecting metrics and unregister MBean.
+	*/
+	public static synchronized void Disable() {
+		if(Current == null) {
+			return;
+		}
+		Current = null;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(NAME) );
+		} catch(JMException ex) {
+			//Already unregistered by someone
+		}
+	}
+	
+	/**
+		Returns enabled metrics.
+		@return metrics, null if disabled
+	*/
+	public static SFFMetrics Get() {
+		return Current;
+	}
+	
+	//Index of TYPES for sffv2 image type (KumoSFFReader.SFFV2*_IMGTYPE_*), -1 (sffv1) is PCX
+	static int Slot(int imgt) {
+		switch(imgt) {
+			case -1: return 0;
+			case 0: return 1; //RAW
+			case 2: return 2; //RLE8
+			case 3: return 3; //RLE5
+			case 4: return 4; //LZ5
+			case 10: return 5; //PNG8
+			case 11: return 6; //PNG24
+			case 12: return 7; //PNG32
+			default: return TYPES.length - 1;
+		}
+	}
+	
+	//Record opening sff took nanos
+	void Open(long nanos) {
+		opens.increment();
+		opennanos.add(nanos);
+	}
+	
+	//Record decoding image of type imgt (-1 for pcx) took nanos
+	void Decode(int imgt, long nanos) {
+		int s = Slot(imgt);
+		decodes[s].increment();
+		decodenanos[s].add(nanos);
+		int b = 63 - Long.numberOfLeadingZeros(Math.max(nanos, 1) );
+		histogram[s][Math.min(b, BUCKETS - 1)].increment();
+	}
+	
+	@Override
+	public long getOpenCount() {
+		return opens.sum();
+	}
+	
+	@Override
+	public long getOpenNanos() {
+		return opennanos.sum();
+	}
+	
+	@Override
+	public long getImageBytesRead() {
+		return imagebytes.sum();
+	}
+	
+	@Override
+	public long getPaletteBytesRead() {
+		return palettebytes.sum();
+	}
+	
+	@Override
+	public long getLinkRedirectCount() {
+		return links.sum();
+	}
+	
+	@Override
+	public long getAliasRedirectCount() {
+		return aliases.sum();
+	}
+	
+	@Override
+	public long getCacheHitCount() {
+		return cachehits.sum();
+	}
+	
+	@Override
+	public long getCacheMissCount() {
+		return cachemisses.sum();
+	}
+	
+	@Override
+	public long getCacheEvictionCount() {
+		return evictions.sum();
+	}
+	
+	@Override
+	public String[] getImageTypes() {
+		return TYPES.clone();
+	}
+	
+	@Override
+	public long[] getDecodeCounts() {
+		return Sums(decodes);
+	}
+	
+	@Override
+	public long[] getDecodeNanos() {
+		return Sums(decodenanos);
+	}
+	
+	@Override
+	public long[] getDecodeHistogram(String type) {
+		for(int i = 0; i < TYPES.length; i++) {
+			if(TYPES[i].equals(type) ) {
+				return Sums(histogram[i]);
+			}
+		}
+		return null;
+	}
+	
+	@Override
+	public void reset() {
+		for(LongAdder a : new LongAdder[] {opens, opennanos, imagebytes, palettebytes,
+			links, aliases, cachehits, cachemisses, evictions}) {
+			a.reset();
+		}
+		for(int i = 0; i < TYPES.length; i++) {
+			decodes[i].reset();
+			decodenanos[i].reset();
+			for(LongAdder a : histogram[i]) {
+				a.reset();
+			}
+		}
+	}
+	
+	//Current values of counters
+	static long[] Sums(LongAdder a[]) {
+		long r[] = new long[a.length];
+		for(int i = 0; i < a.length; i++) {
+			r[i] = a[i].sum();
+		}
+		return r;
+	}
+}
@@ -0,0 +1,41 @@
+package kumotechmadlab.sffreader;
+
+/**
+	JMX interface of SFFMetrics. Getter names follow JMX attribute naming (getXxx).
+	Times are in nanoseconds, arrays are in order of getImageTypes().
+*/
+public interface SFFMetricsMBean {
+	/** Count of opened sff */
+	long getOpenCount();
+	/** Total time spent in opening sff (parsing or loading sidecar) */
+	long getOpenNanos();
+	/** Octets of image data read by GetRawImage(), GetRawImageBuffer() and decoders */
+	long getImageBytesRead();
+	/** Octets of palette data read */
+	long getPaletteBytesRead();
+	/** Count of ConvertImage(), ConvertImageIndexed() and ConvertImageWithOptions() calls of linked images */
+	long getLinkRedirectCount();
+	/** Count of those calls redirected to the same image found by KumoSFFReader.Deduplicate() */
+	long getAliasRedirectCount();
+	/** Count of decoded images found in SFFCache (shared palettes are not counted) */
+	long getCacheHitCount();
+	/** Count of decoded images not found in SFFCache */
+	long getCacheMissCount();
+	/** Count of entries evicted from SFFCache because of size limit */
+	long getCacheEvictionCount();
+	/** Names of image types of decode statistics */
+	String[] getImageTypes();
+	/** Decoded image count per image type */
+	long[] getDecodeCounts();
+	/** Total decode time per image type */
+	long[] getDecodeNanos();
+	/**
+		Decode latency histogram of image type, element i is count of decodes
+		taking 2^i to 2^(i+1)-1 nanoseconds (last one has all slower ones).
+		@param type image type name, one of getImageTypes()
+		@return histogram, null if type is unknown
+	*/
+	long[] getDecodeHistogram(String type);
+	/** Reset all counters to 0 */
+	void reset();
+}
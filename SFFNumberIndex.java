@@ -0,0 +1,121 @@
+package kumotechmadlab.sffreader;
+
+import java.util.*;
+
+//Lookup index of image group number and image number, made at open.
+//(group << 16 | image) is stored in open addressing hash table, and image indexes
+//sorted by group number are stored with per group ranges, so searches do not scan all images.
+class SFFNumberIndex {
+	final int keys[]; //hash table key: group << 16 | image number
+	final int vals[]; //hash table value: image index, -1 if slot is empty
+	final int order[]; //image indexes sorted by group number, then by index
+	final int gkeys[]; //group hash table key: group number
+	final int gstart[]; //group hash table value: start in order[], -1 if slot is empty
+	final int gcount[]; //group hash table value: count in order[]
+	
+	//Make index, grp[i] and ino[i] are group and image number of image i
+	SFFNumberIndex(int grp[], int ino[], int n) {
+		//Pair table, first image wins if there are duplicated numbers
+		int cap = TableSize(n);
+		keys = new int[cap];
+		vals = new int[cap];
+		Arrays.fill(vals, -1);
+		for(int i = 0; i < n; i++) {
+			int k = (grp[i] << 16) | ino[i];
+			int s = Slot(k, cap - 1);
+			while(vals[s] != -1 && keys[s] != k) {
+				s = (s + 1) & (cap - 1);
+			}
+			if(vals[s] == -1) {
+				keys[s] = k;
+				vals[s] = i;
+			}
+		}
+		//Sort by group (stable by index), packed as group << 32 | index
+		long sorted[] = new long[n];
+		for(int i = 0; i < n; i++) {
+			sorted[i] = ( (long)grp[i] << 32) | i;
+		}
+		Arrays.sort(sorted);
+		order = new int[n];
+		int ngroup = 0;
+		for(int i = 0; i < n; i++) {
+			order[i] = (int)sorted[i];
+			if(i == 0 || (sorted[i] >>> 32) != (sorted[i - 1] >>> 32) ) {
+				ngroup++;
+			}
+		}
+		//Group table
+		int gcap = TableSize(ngroup);
+		gkeys = new int[gcap];
+		gstart = new int[gcap];
+		gcount = new int[gcap];
+		Arrays.fill(gstart, -1);
+		for(int i = 0; i < n; ) {
+			int g = (int)(sorted[i] >>> 32);
+			int j = i;
+			while(j < n && (int)(sorted[j] >>> 32) == g) {
+				j++;
+			}
+			int s = Slot(g, gcap - 1);
+			while(gstart[s] != -1) {
+				s = (s + 1) & (gcap - 1);
+			}
+			gkeys[s] = g;
+			gstart[s] = i;
+			gcount[s] = j - i;
+			i = j;
+		}
+	}
+	
+	//Make index from tables made before (loaded from sidecar index file)
+	SFFNumberIndex(int keys[], int vals[], int order[], int gkeys[], int gstart[], int gcount[]) {
+		this.keys = keys;
+		this.vals = vals;
+		this.order = order;
+		this.gkeys = gkeys;
+		this.gstart = gstart;
+		this.gcount = gcount;
+	}
+	
+	//Power of 2 table size, load factor is 0.5 or less
+	static int TableSize(int n) {
+		int cap = 2;
+		while(cap < n * 2) {
+			cap <<= 1;
+		}
+		return cap;
+	}
+	
+	//Home slot of key k
+	static int Slot(int k, int mask) {
+		int h = k * 0x9e3779b9;
+		return (h ^ (h >>> 16) ) & mask;
+	}
+	
+	//Find image index having group number grp and image number ino, -1 if not found.
+	int Find(int grp, int ino) {
+		if(!C.in_range(grp, 0, 65535) || !C.in_range(ino, 0, 65535) ) {
+			return -1; //numbers are uint16_t in sff
+		}
+		int k = (grp << 16) | ino;
+		int mask = keys.length - 1;
+		for(int s = Slot(k, mask); vals[s] != -1; s = (s + 1) & mask) {
+			if(keys[s] == k) {
+				return vals[s];
+			}
+		}
+		return -1;
+	}
+	
+	//List image indexes having group number grp, sorted by index
+	int[] List(int grp) {
+		int mask = gkeys.length - 1;
+		for(int s = Slot(grp, mask); gstart[s] != -1; s = (s + 1) & mask) {
+			if(gkeys[s] == grp) {
+				return Arrays.copyOfRange(order, gstart[s], gstart[s] + gcount[s]);
+			}
+		}
+		return new int[0];
+	}
+}
@@ -1,5 +0,0 @@
-
-package kumotechmadlab.sffreader;
-public class SFFPaletteElement {
-	public int groupid, paletteid, numcols, linkid, paloffset, pallength;
-}
@@ -0,0 +1,134 @@
+package kumotechmadlab.sffreader;
+
+import java.io.*;
+import java.awt.image.*;
+import kumotechmadlab.sffreader.*;
+
+/**
+	Palette swapper. Decodes 8 bit sprite only once as colour index array,
+	then makes images with any palettes without decoding again.
+	Images made by Apply() share one index raster, only colour model is different.
+*/
+public class SFFPaletteSwapper {
+	final int width;
+	final int height;
+	final byte index[]; //colour index of each pixel, width * height
+	final WritableRaster raster; //raster shared by images made by Apply()
+	
+	/**
+		Decode image at specified index in indexed colour mode and make swapper of it.
+		@param sff reader to get image from
+		@param imgid Image index in order of sff subfiles.
+		@throws ArrayIndexOutOfBoundsException when imgid is greater than image count.
+		@throws IOException when IO Error occured.
+		@throws SFFDecodeException when image format was bad or not indexed colour.
+	*/
+	public SFFPaletteSwapper(KumoSFFReader sff, int imgid) throws IOException, SFFDecodeException {
+		this(sff.ConvertImageIndexed(imgid) );
+	}
+	
+	/**
+		Make swapper from indexed colour image (like result of ConvertImageIndexed())
+		@param img TYPE_BYTE_INDEXED image
+		@throws IllegalArgumentException when img is not TYPE_BYTE_INDEXED
+	*/
+	public SFFPaletteSwapper(BufferedImage img) {
+		if(img.getType() != BufferedImage.TYPE_BYTE_INDEXED) {
+			throw new IllegalArgumentException("Image is not TYPE_BYTE_INDEXED!");
+		}
+		width = img.getWidth();
+		height = img.getHeight();
+		//Copy index once, so this does not depend on layout of source raster
+		index = (byte[])img.getRaster().getDataElements(0, 0, width, height, null);
+		raster = Raster.createInterleavedRaster(new DataBufferByte(index, index.length),
+			width, height, width, 1, new int[] {0}, null);
+	}
+	
+	/**
+		Returns image width
+		@return width
+	*/
+	public int GetWidth() {
+		return width;
+	}
+	
+	/**
+		Returns image height
+		@return height
+	*/
+	public int GetHeight() {
+		return height;
+	}
+	
+	/**
+		Make TYPE_BYTE_INDEXED image using specified palette. No pixel is copied,
+		returned images share the same raster, do not modify them.
+		@param pal palette, ARGB8888 array (up to 256 colours)
+		@return indexed colour image
+	*/
+	public BufferedImage Apply(int pal[]) {
+		return new BufferedImage(DConv.toColorModel(pal), raster, false, null);
+	}
+	
+	/**
+		Make TYPE_INT_ARGB image using specified palette.
+		@param pal palette, ARGB8888 array, must have entries for all used colour index
+		@return ARGB image
+		@throws ArrayIndexOutOfBoundsException when pal[] is shorter than used colour index
+	*/
+	public BufferedImage ApplyARGB(int pal[]) {
+		BufferedImage r = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		ApplyARGB(pal, ((DataBufferInt)r.getRaster().getDataBuffer() ).getData(), 0);
+		return r;
+	}
+	
+	/**
+		Convert colour index to ARGB8888 into dst[] from index offs, using pal[] as lookup table.
+		@param pal palette, ARGB8888 array, must have entries for all used colour index
+		@param dst destination, needs width * height elements from offs
+		@param offs start index of dst[]
+		@throws ArrayIndexOutOfBoundsException when pal[] or dst[] is too short
+	*/
+	public void ApplyARGB(int pal[], int dst[], int offs) {
+		DConv.expand(index, pal, dst, offs);
+	}
+	
+	/**
+		Apply() for each palette in pals[].
+		@param pals palettes
+		@return indexed colour images, element i uses pals[i]
+	*/
+	public BufferedImage[] ApplyAll(int pals[][]) {
+		BufferedImage r[] = new BufferedImage[pals.length];
+		for(int i = 0; i < pals.length; i++) {
+			r[i] = Apply(pals[i]);
+		}
+		return r;
+	}
+	
+	/**
+		Load ACT palette file (256 colours of RGB888, 768 octets).
+		Colour index 0 is transparent like sff palettes.
+		@param filename ACT filename
+		@return palette, 256 ARGB8888 array
+		@throws IOException when IO Error occured
+		@throws EOFException when file is shorter than 768 octets
+	*/
+	public static int[] LoadACT(String filename) throws IOException {
+		return LoadACT(new File(filename) );
+	}
+	
+	/**
+		LoadACT(String) but accepts java.io.File.
+	*/
+	public static int[] LoadACT(File target) throws IOException {
+		byte actdata[] = new byte[768];
+		RandomAccessFile act = new RandomAccessFile(target, "r");
+		try {
+			act.readFully(actdata);
+		} finally {
+			act.close();
+		}
+		return DConv.fromACT(actdata);
+	}
+}
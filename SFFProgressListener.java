@@ -0,0 +1,14 @@
+package kumotechmadlab.sffreader;
+
+/**
+	Progress callback for bulk decode functions of KumoSFFReader
+*/
+public interface SFFProgressListener {
+	/**
+		Called each time one image is decoded. It may be called from worker threads
+		and not in order of index.
+		@param done count of decoded images so far
+		@param total count of images to decode
+	*/
+	void Progress(int done, int total);
+}
@@ -0,0 +1,226 @@
+package kumotechmadlab.sffreader;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import kumotechmadlab.sffreader.*;
+
+/**
+	Pool of readers for many sff files.
+	Readers are opened on first Acquire() and closed when all users Release() them.
+	Open file handles are limited, least recently read handles are closed while idle
+	and reopened at next read. All readers use one SFFCache for decoded images and palettes,
+	so one memory limit is applied to all of them.
+*/
+public class SFFReaderPool implements Closeable {
+	final int MaxOpen;
+	final boolean Mapped;
+	final SFFCache cache;
+	final HashMap<File, Slot> slots = new HashMap<File, Slot>();
+	final IdentityHashMap<KumoSFFReader, Slot> byreader = new IdentityHashMap<KumoSFFReader, Slot>();
+	boolean closed = false;
+	
+	//One pooled file
+	static final class Slot {
+		FutureTask<KumoSFFReader> opening; //Opens reader, other Acquire() waits for it
+		KumoSFFReader reader;
+		SFFFileSource src;
+		int refs = 0;
+	}
+	
+	/**
+		Create pool.
+		@param maxopen maximum open file handles, should be more than threads reading at once.
+		@param cachesize size limit of shared cache in octets
+		@param mapped true to open files in memory mapped mode. Mapped files do not keep handle.
+	*/
+	public SFFReaderPool(int maxopen, long cachesize, boolean mapped) {
+		if(maxopen < 1) {
+			throw new IllegalArgumentException("maxopen must be 1 or more!");
+		}
+		MaxOpen = maxopen;
+		Mapped = mapped;
+		cache = new SFFCache(cachesize);
+	}
+	
+	/**
+		Get reader of file, file is opened if not opened yet. Each Acquire() must be
+		paired with Release(). Returned reader is shared, do not call closeSFF() or
+		SetImageCache() of it.
+		@param filename SFF filename
+		@return reader
+		@throws IOException when IO Error occured
+		@throws SFFDecodeException when SFF was bad
+	*/
+	public KumoSFFReader Acquire(String filename) throws IOException, SFFDecodeException {
+		return Acquire(new File(filename) );
+	}
+	
+	/**
+		Acquire(String) but accepts java.io.File.
+	*/
+	public KumoSFFReader Acquire(File f) throws IOException, SFFDecodeException {
+		File key = f.getAbsoluteFile();
+		Slot s;
+		boolean opener = false;
+		synchronized(this) {
+			if(closed) {
+				throw new IOException("Pool is closed!");
+			}
+			s = slots.get(key);
+			if(s == null) {
+				s = new Slot();
+				final Slot ns = s;
+				s.opening = new FutureTask<KumoSFFReader>(() -> Open(key, ns) );
+				slots.put(key, s);
+				opener = true;
+			}
+			s.refs++;
+		}
+		if(opener) {
+			s.opening.run(); //Open outside of pool lock, other files can be acquired meanwhile
+		}
+		try {
+			return s.opening.get();
+		} catch(ExecutionException e) {
+			synchronized(this) {
+				s.refs--;
+				if(slots.get(key) == s) {
+					slots.remove(key); //Next Acquire() tries again
+				}
+			}
+			Throwable c = e.getCause();
+			if(c instanceof IOException) { throw (IOException)c; }
+			if(c instanceof SFFDecodeException) { throw (SFFDecodeException)c; }
+			if(c instanceof RuntimeException) { throw (RuntimeException)c; }
+			if(c instanceof Error) { throw (Error)c; }
+			throw new IOException(c);
+		} catch(InterruptedException e) {
+			Release(s);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while opening sff");
+		}
+	}
+	
+	//Open reader of slot
+	KumoSFFReader Open(File f, Slot s) throws IOException, SFFDecodeException {
+		SFFFileSource src = new SFFFileSource(f, Mapped);
+		KumoSFFReader r = new KumoSFFReader(src);
+		r.SetImageCache(cache);
+		r.sharedpal = true;
+		src.OnReopen = () -> Trim(src);
+		synchronized(this) {
+			s.reader = r;
+			s.src = src;
+			if(s.refs > 0 && !closed) {
+				byreader.put(r, s);
+			}
+		}
+		if(src.Buffer() != null) {
+			src.Suspend(); //Mapped, handle is not needed
+		}
+		Trim(src);
+		synchronized(this) {
+			if(s.refs == 0 || closed) {
+				//All users gave up while opening
+				byreader.remove(r);
+				r.closeSFF();
+			}
+		}
+		return r;
+	}
+	
+	/**
+		Release reader got by Acquire(). Reader is closed when it is released by all users.
+		@param r reader
+		@throws IllegalArgumentException when r is not from this pool
+	*/
+	public synchronized void Release(KumoSFFReader r) {
+		Slot s = byreader.get(r);
+		if(s == null) {
+			throw new IllegalArgumentException("Reader is not in this pool!");
+		}
+		Release(s);
+	}
+	
+	//Decrease reference count of slot, close if not used
+	synchronized void Release(Slot s) {
+		s.refs--;
+		if(s.refs > 0) {
+			return;
+		}
+		slots.values().remove(s);
+		if(s.reader != null) {
+			byreader.remove(s.reader);
+			s.reader.closeSFF();
+		}
+	}
+	
+	//Close handles of least recently read sources until open handles are in limit,
+	//keep is not closed (it was just opened).
+	synchronized void Trim(SFFFileSource keep) {
+		ArrayList<SFFFileSource> open = new ArrayList<SFFFileSource>();
+		for(Slot s : byreader.values() ) {
+			if(s.src != null && s.src != keep && s.src.IsOpen() ) {
+				open.add(s.src);
+			}
+		}
+		int n = open.size() + (keep.IsOpen() ? 1 : 0);
+		if(n <= MaxOpen) {
+			return;
+		}
+		open.sort( (a, b) -> Long.compare(a.LastUse, b.LastUse) );
+		for(SFFFileSource src : open) {
+			if(n <= MaxOpen) {
+				break;
+			}
+			if(src.Suspend() ) {
+				n--;
+			}
+		}
+	}
+	
+	/**
+		Returns shared cache of readers.
+		@return cache
+	*/
+	public SFFCache GetCache() {
+		return cache;
+	}
+	
+	/**
+		Returns count of opened readers.
+		@return reader count
+	*/
+	public synchronized int GetReaderCount() {
+		return byreader.size();
+	}
+	
+	/**
+		Returns count of open file handles.
+		@return open handle count
+	*/
+	public synchronized int GetOpenFileCount() {
+		int n = 0;
+		for(Slot s : byreader.values() ) {
+			if(s.src != null && s.src.IsOpen() ) {
+				n++;
+			}
+		}
+		return n;
+	}
+	
+	/**
+		Close all readers, even if they are not released.
+	*/
+	@Override
+	public synchronized void close() {
+		closed = true;
+		for(Slot s : byreader.values() ) {
+			s.reader.closeSFF();
+		}
+		byreader.clear();
+		slots.clear();
+		cache.Clear();
+	}
+}
@@ -0,0 +1,152 @@
+package kumotechmadlab.sffreader;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.zip.*;
+import kumotechmadlab.sffreader.*;
+
+//Sidecar index file, keeps parsed image / palette tables, number lookup index and per image
+//content hash of a sff, so reopening the same sff does not need to parse it again.
+//Sidecar is valid only for the sff having same file size, modified time and header hash.
+//Layout (all little endian, int arrays are 4 octet aligned, so file can be mapped as IntBuffer):
+//0 "KSFFIDX\0", 8 int32 layout version, 12 int32 sff version, 16 int64 sff size,
+//24 int64 sff modified time, 32 int32 header CRC32, 36 int32 image count,
+//40 int32 palette count, 44 int32 pair table size, 48 int32 group table size,
+//52 int32 CRC32 of body, 56 reserved, 64 body:
+//image table, palette table, image hashes, pair keys, pair values, order, group keys,
+//group starts, group counts
+class SFFSidecar {
+	static final byte MAGIC[] = {'K', 'S', 'F', 'F', 'I', 'D', 'X', 0};
+	static final int LAYOUT = 1;
+	static final int HEADER = 64;
+	
+	int version; //sff version
+	int palcount; //palette count
+	int sprtab[]; //image table, KumoSFFReader.S_STRIDE ints per image
+	int paltab[]; //palette table, KumoSFFReader.P_STRIDE ints per palette
+	int imghash[]; //CRC32 of image data per image
+	SFFNumberIndex index;
+	
+	SFFSidecar(int version, int palcount, int sprtab[], int paltab[], int imghash[],
+		SFFNumberIndex index) {
+		this.version = version;
+		this.palcount = palcount;
+		this.sprtab = sprtab;
+		this.paltab = paltab;
+		this.imghash = imghash;
+		this.index = index;
+	}
+	
+	//Load sidecar, returns null if file is missing, broken, or made for other sff.
+	//sstride and pstride are image and palette record size in ints.
+	static SFFSidecar Load(File f, long size, long mtime, int hdrcrc, int sstride, int pstride) {
+		try(FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ) ) {
+			long len = ch.size();
+			if(len < HEADER || len > Integer.MAX_VALUE) {
+				return null;
+			}
+			//Header is checked before mapping, so stale sidecar is not mapped and can be replaced
+			ByteBuffer h = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+			while(h.hasRemaining() ) {
+				if(ch.read(h, h.position() ) < 0) {
+					return null;
+				}
+			}
+			if(!C.compareBytes(h.array(), 0, MAGIC) || h.getInt(8) != LAYOUT ||
+				h.getLong(16) != size || h.getLong(24) != mtime || h.getInt(32) != hdrcrc) {
+				return null; //not a sidecar, or sff was changed
+			}
+			int version = h.getInt(12);
+			if(version != 1 && version != 2) {
+				return null; //Unknown sff version, parse sff again
+			}
+			int nimg = h.getInt(36);
+			int npal = h.getInt(40);
+			int cap = h.getInt(44);
+			int gcap = h.getInt(48);
+			if(!C.in_range(nimg, 0, 65535) || !C.in_range(npal, 0, 65535) ||
+				cap != SFFNumberIndex.TableSize(nimg) || !C.in_range(gcap, 2, cap) ||
+				Integer.bitCount(gcap) != 1) {
+				return null;
+			}
+			long body = (long)nimg * (sstride + 3) + (long)npal * pstride + cap * 2L + gcap * 3L;
+			if(len != HEADER + body * 4) {
+				return null;
+			}
+			MappedByteBuffer m = ch.map(FileChannel.MapMode.READ_ONLY, HEADER, len - HEADER);
+			//Check body CRC, so truncated or broken sidecar is not used
+			CRC32 crc = new CRC32();
+			crc.update(m.duplicate() );
+			if( (int)crc.getValue() != h.getInt(52) ) {
+				return null;
+			}
+			IntBuffer ib = m.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+			int sprtab[] = Ints(ib, nimg * sstride);
+			int paltab[] = Ints(ib, npal * pstride);
+			int imghash[] = Ints(ib, nimg);
+			int keys[] = Ints(ib, cap);
+			int vals[] = Ints(ib, cap);
+			int order[] = Ints(ib, nimg);
+			int gkeys[] = Ints(ib, gcap);
+			int gstart[] = Ints(ib, gcap);
+			int gcount[] = Ints(ib, gcap);
+			SFFNumberIndex index = new SFFNumberIndex(keys, vals, order, gkeys, gstart, gcount);
+			return new SFFSidecar(version, npal, sprtab, paltab, imghash, index);
+		} catch(IOException | RuntimeException ex) {
+			return null; //Sidecar is only a cache, parse sff instead
+		}
+	}
+	
+	//Get next n ints from b
+	static int[] Ints(IntBuffer b, int n) {
+		int r[] = new int[n];
+		b.get(r);
+		return r;
+	}
+	
+	//Write sidecar for sff having specified size, modified time and header hash.
+	//Written to unique temporary file first then renamed, so other process never sees half written file
+	//and processes writing the same sidecar do not overwrite each other's temporary file.
+	void Save(File f, long size, long mtime, int hdrcrc) throws IOException {
+		int body[][] = {sprtab, paltab, imghash, index.keys, index.vals, index.order,
+			index.gkeys, index.gstart, index.gcount};
+		int total = HEADER;
+		for(int a[] : body) {
+			total += a.length * 4;
+		}
+		ByteBuffer b = ByteBuffer.allocate(total).order(ByteOrder.LITTLE_ENDIAN);
+		b.position(HEADER);
+		IntBuffer ib = b.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		for(int a[] : body) {
+			ib.put(a);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(b.array(), HEADER, total - HEADER);
+		b.position(0);
+		b.put(MAGIC);
+		b.putInt(8, LAYOUT);
+		b.putInt(12, version);
+		b.putLong(16, size);
+		b.putLong(24, mtime);
+		b.putInt(32, hdrcrc);
+		b.putInt(36, imghash.length);
+		b.putInt(40, palcount);
+		b.putInt(44, index.keys.length);
+		b.putInt(48, index.gkeys.length);
+		b.putInt(52, (int)crc.getValue() );
+		Path dst = f.toPath().toAbsolutePath();
+		Path tmp = Files.createTempFile(dst.getParent(), dst.getFileName().toString(), ".tmp");
+		try {
+			Files.write(tmp, b.array() );
+			try {
+				Files.move(tmp, dst, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch(AtomicMoveNotSupportedException ex) {
+				Files.move(tmp, dst, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tmp); //Left only when writing or moving failed
+		}
+	}
+}
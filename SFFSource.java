@@ -0,0 +1,35 @@
+package kumotechmadlab.sffreader;
+
+import java.io.*;
+import java.nio.*;
+import kumotechmadlab.sffreader.*;
+
+/**
+	Source of sff data. KumoSFFReader reads sff only through this,
+	so sff can be read from file, memory or archive without temporary file.
+	Read() must be callable from multiple threads at once.
+*/
+public interface SFFSource extends Closeable {
+	/**
+		Returns data size.
+		@return size in octets
+		@throws IOException when IO Error occured
+	*/
+	long Size() throws IOException;
+	
+	/**
+		Read dst.remaining() octets at offs into dst.
+		@param offs position in source
+		@param dst destination buffer, filled up to its limit
+		@throws IOException when IO Error occured
+		@throws EOFException when data is shorter than requested
+	*/
+	void Read(long offs, ByteBuffer dst) throws IOException;
+	
+	/**
+		Returns whole data as buffer, if data is in memory or memory mapped.
+		Reader then reads from the buffer directly. Returned buffer must not be modified.
+		@return whole data, position 0 and limit is size, null if not available
+	*/
+	ByteBuffer Buffer();
+}
@@ -0,0 +1,636 @@
+package kumotechmadlab.sffreader;
+
+import java.io.*;
+import java.awt.image.*;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.imageio.*;
+import kumotechmadlab.sffreader.*;
+
+/**
+	SFFv2 writer. Add palettes and sprites, then Write().
+	8 bit sprites are encoded to RLE8, LZ5 (only if all colour indexes are less than 32)
+	and PNG8 (if PNG is enabled) in parallel, and the smallest one is used.
+	True colour sprites are written as PNG24 or PNG32, they need PNG enabled.
+	Byte identical sprites (same size, palette and pixels) and palettes are written once,
+	others are linked to it (link index with zero data length).
+	File is sffv2.1 if PNG is enabled, otherwise sffv2.
+*/
+public class SFFWriter {
+	boolean UsePNG;
+	final ArrayList<Sprite> sprites = new ArrayList<Sprite>();
+	final ArrayList<Palette> palettes = new ArrayList<Palette>();
+	
+	static final class Sprite {
+		int grp, ino, x, y, w, h, pal;
+		byte idx[]; //colour indexes of 8 bit sprite, null for true colour
+		int argb[]; //ARGB8888 pixels of true colour sprite, null for 8 bit
+		int link = -1; //sprite having the same data, -1 if this has own data
+		int type; //encoded format
+		int depth;
+		byte data[]; //encoded data
+	}
+	
+	static final class Palette {
+		int grp, no;
+		byte data[]; //RGBA8888 (alpha 0) data
+		int link = -1; //palette having the same data, -1 if this has own data
+	}
+	
+	/**
+		Create writer.
+		@param png true to write sffv2.1 and use PNG, false to write sffv2 (RLE8 and LZ5 only).
+	*/
+	public SFFWriter(boolean png) {
+		UsePNG = png;
+	}
+	
+	/**
+		Add palette.
+		@param grp palette group number
+		@param no palette item number
+		@param pal ARGB8888 colours (alpha is not stored, index 0 is transparent in reader), 1 to 256 colours
+		@return palette index
+	*/
+	public int AddPalette(int grp, int no, int pal[]) {
+		if(!C.in_range(grp, 0, 65535) || !C.in_range(no, 0, 65535) ||
+			!C.in_range(pal.length, 1, 256) ) {
+			throw new IllegalArgumentException("Bad palette number or colour count!");
+		}
+		Palette p = new Palette();
+		p.grp = grp;
+		p.no = no;
+		p.data = new byte[pal.length * 4];
+		for(int i = 0; i < pal.length; i++) {
+			p.data[i * 4] = (byte)(pal[i] >> 16);
+			p.data[i * 4 + 1] = (byte)(pal[i] >> 8);
+			p.data[i * 4 + 2] = (byte)pal[i];
+		}
+		palettes.add(p);
+		return palettes.size() - 1;
+	}
+	
+	/**
+		Add 8 bit sprite.
+		@param grp group number
+		@param ino image number
+		@param x center x
+		@param y center y
+		@param w width
+		@param h height
+		@param idx colour indexes, w * h elements (copied)
+		@param pal palette index from AddPalette()
+		@return sprite index
+	*/
+	public int AddSprite(int grp, int ino, int x, int y, int w, int h, byte idx[], int pal) {
+		Sprite s = NewSprite(grp, ino, x, y, w, h);
+		if(idx.length < w * h || !C.in_range(pal, 0, palettes.size() - 1) ) {
+			throw new IllegalArgumentException("Bad index data length or palette index!");
+		}
+		s.idx = Arrays.copyOf(idx, w * h);
+		s.pal = pal;
+		s.depth = 8;
+		sprites.add(s);
+		return sprites.size() - 1;
+	}
+	
+	/**
+		Add sprite from image. TYPE_BYTE_INDEXED image is added as 8 bit sprite (its colour
+		model is not used, pal is), others are added as true colour sprite (needs PNG).
+		@param grp group number
+		@param ino image number
+		@param x center x
+		@param y center y
+		@param img image
+		@param pal palette index from AddPalette(), used by 8 bit sprite
+		@return sprite index
+	*/
+	public int AddSprite(int grp, int ino, int x, int y, BufferedImage img, int pal) {
+		int w = img.getWidth();
+		int h = img.getHeight();
+		if(img.getType() == BufferedImage.TYPE_BYTE_INDEXED) {
+			byte idx[] = (byte[])img.getRaster().getDataElements(0, 0, w, h, null);
+			return AddSprite(grp, ino, x, y, w, h, idx, pal);
+		}
+		if(!UsePNG) {
+			throw new IllegalArgumentException("True colour sprite needs PNG (sffv2.1)!");
+		}
+		Sprite s = NewSprite(grp, ino, x, y, w, h);
+		s.argb = img.getRGB(0, 0, w, h, null, 0, w);
+		s.pal = C.in_range(pal, 0, palettes.size() - 1) ? pal : 0;
+		boolean opaque = true;
+		for(int c : s.argb) {
+			opaque &= (c >>> 24) == 0xff;
+		}
+		s.depth = opaque ? 24 : 32;
+		sprites.add(s);
+		return sprites.size() - 1;
+	}
+	
+	//Check parameters and make sprite
+	Sprite NewSprite(int grp, int ino, int x, int y, int w, int h) {
+		if(!C.in_range(grp, 0, 65535) || !C.in_range(ino, 0, 65535) ||
+			!C.in_range(x, -32768, 32767) || !C.in_range(y, -32768, 32767) ||
+			!C.in_range(w, 1, 65535) || !C.in_range(h, 1, 65535) ) {
+			throw new IllegalArgumentException("Bad sprite number, axis or size!");
+		}
+		Sprite s = new Sprite();
+		s.grp = grp;
+		s.ino = ino;
+		s.x = x;
+		s.y = y;
+		s.w = w;
+		s.h = h;
+		return s;
+	}
+	
+	/**
+		Add all palettes and sprites of reader (repack). 8 bit sprites keep colour indexes,
+		sffv1 palettes become sffv2 palettes (group 1).
+		@param sff reader
+		@throws IOException when IO Error occured.
+		@throws SFFDecodeException when image format was bad.
+	*/
+	public void AddAll(KumoSFFReader sff) throws IOException, SFFDecodeException {
+		int base = palettes.size();
+		HashMap<PaletteKey, Integer> v1pal = new HashMap<PaletteKey, Integer>();
+		if(sff.GetSFFVersion() == KumoSFFReader.SFF_V2) {
+			for(int i = 0; i < sff.SFFv2GetPaletteCount(); i++) {
+				AddPalette(sff.pal(i, KumoSFFReader.P_GRP), sff.pal(i, KumoSFFReader.P_NO),
+					sff.SFFv2GetPalette(i) );
+			}
+		}
+		for(int i = 0; i < sff.GetImageCount(); i++) {
+			int grp = sff.GetGroupNumber(i);
+			int ino = sff.GetImageNumber(i);
+			int x = sff.GetX(i);
+			int y = sff.GetY(i);
+			if(sff.GetSFFVersion() == KumoSFFReader.SFF_V1) {
+				int pal[] = sff.GetPalette(sff.IsSharedPalette(i) ? 0 : i);
+				if(pal == null) {
+					throw new SFFDecodeException(String.format("index%d: PCX has no palette", i),
+						SFFDecodeException.MISSING_DATA, i);
+				}
+				PaletteKey k = new PaletteKey(pal);
+				Integer p = v1pal.get(k);
+				if(p == null) {
+					p = AddPalette(1, v1pal.size(), pal);
+					v1pal.put(k, p);
+				}
+				AddSprite(grp, ino, x, y, sff.ConvertImageIndexed(i), p);
+			} else if(sff.SFFv2GetImageColorDepth(sff.ResolveLink(i) ) <= 8) {
+				AddSprite(grp, ino, x, y, sff.ConvertImageIndexed(i),
+					base + sff.SFFv2GetImagePaletteIndex(sff.ResolveLink(i) ) );
+			} else {
+				AddSprite(grp, ino, x, y, sff.ConvertImage(i), base);
+			}
+		}
+	}
+	
+	//Palette content as hash key
+	static final class PaletteKey {
+		final int pal[];
+		
+		PaletteKey(int pal[]) {
+			this.pal = pal;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof PaletteKey && Arrays.equals(pal, ((PaletteKey)o).pal);
+		}
+		
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(pal);
+		}
+	}
+	
+	//Encoded palette data as hash key
+	static final class DataKey {
+		final byte data[];
+		
+		DataKey(byte data[]) {
+			this.data = data;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof DataKey && Arrays.equals(data, ((DataKey)o).data);
+		}
+		
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(data);
+		}
+	}
+	
+	//Sprite content as hash key: size, palette and pixels
+	static final class SpriteKey {
+		final Sprite s;
+		final int pal; //palette after linking
+		
+		SpriteKey(Sprite s, int pal) {
+			this.s = s;
+			this.pal = pal;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof SpriteKey)) { return false; }
+			SpriteKey k = (SpriteKey)o;
+			return k.pal == pal && k.s.w == s.w && k.s.h == s.h && k.s.depth == s.depth &&
+				Arrays.equals(k.s.idx, s.idx) && Arrays.equals(k.s.argb, s.argb);
+		}
+		
+		@Override
+		public int hashCode() {
+			int h = Arrays.hashCode(s.idx) * 31 + Arrays.hashCode(s.argb);
+			return ( (h * 31 + s.w) * 31 + s.h) * 31 + pal;
+		}
+	}
+	
+	/**
+		Returns sprite count.
+		@return sprite count
+	*/
+	public int GetSpriteCount() {
+		return sprites.size();
+	}
+	
+	/**
+		Returns palette count.
+		@return palette count
+	*/
+	public int GetPaletteCount() {
+		return palettes.size();
+	}
+	
+	/**
+		Write sff to file.
+		@param f destination
+		@throws IOException when IO Error occured.
+	*/
+	public void Write(File f) throws IOException {
+		try(FileOutputStream o = new FileOutputStream(f) ) {
+			o.write(Write() );
+		}
+	}
+	
+	/**
+		Write sff to stream. Stream is not closed.
+		@param o destination
+		@throws IOException when IO Error occured.
+	*/
+	public void Write(OutputStream o) throws IOException {
+		o.write(Write() );
+	}
+	
+	/**
+		Make sff. Sprites are encoded in parallel in common ForkJoinPool.
+		@return sff data
+		@throws IOException when encoding failed.
+	*/
+	public byte[] Write() throws IOException {
+		return Write( (Executor)null);
+	}
+	
+	/**
+		Make sff. Sprites are encoded in parallel.
+		@param ex executor for encoding, null to use common ForkJoinPool.
+		@return sff data
+		@throws IOException when encoding failed.
+	*/
+	public byte[] Write(Executor ex) throws IOException {
+		if(ex == null) {
+			ex = ForkJoinPool.commonPool();
+		}
+		if(sprites.size() > 65535 || palettes.size() > 65535) {
+			throw new IOException("Too many sprites or palettes!");
+		}
+		//Link identical palettes
+		HashMap<DataKey, Integer> pals = new HashMap<DataKey, Integer>();
+		for(int i = 0; i < palettes.size(); i++) {
+			Palette p = palettes.get(i);
+			Integer l = pals.putIfAbsent(new DataKey(p.data), i);
+			p.link = l == null ? -1 : l;
+		}
+		//Link identical sprites, then encode the others
+		HashMap<SpriteKey, Integer> sprs = new HashMap<SpriteKey, Integer>();
+		ArrayList<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>();
+		for(int i = 0; i < sprites.size(); i++) {
+			Sprite s = sprites.get(i);
+			Palette p = palettes.isEmpty() ? null : palettes.get(s.pal);
+			int pal = p == null || p.link == -1 ? s.pal : p.link;
+			Integer l = sprs.putIfAbsent(new SpriteKey(s, pal), i);
+			s.link = l == null ? -1 : l;
+			s.data = null;
+			if(s.link == -1) {
+				FutureTask<Void> t = new FutureTask<Void>(() -> {
+					Encode(s);
+					return null;
+				});
+				tasks.add(t);
+				ex.execute(t);
+			}
+		}
+		try {
+			for(FutureTask<Void> t : tasks) {
+				t.get();
+			}
+		} catch(ExecutionException e) {
+			for(FutureTask<Void> t : tasks) {
+				t.cancel(false);
+			}
+			Throwable c = e.getCause();
+			if(c instanceof IOException) { throw (IOException)c; }
+			if(c instanceof RuntimeException) { throw (RuntimeException)c; }
+			if(c instanceof Error) { throw (Error)c; }
+			throw new IOException(c);
+		} catch(InterruptedException e) {
+			for(FutureTask<Void> t : tasks) {
+				t.cancel(false);
+			}
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while encoding sprites");
+		}
+		return Build();
+	}
+	
+	//Encode sprite with the smallest format
+	void Encode(Sprite s) throws IOException {
+		if(s.idx == null) {
+			s.type = s.depth == 24 ? KumoSFFReader.SFFV21_IMGTYPE_PNG24 : KumoSFFReader.SFFV21_IMGTYPE_PNG32;
+			s.data = EncodePNG(s);
+			return;
+		}
+		s.type = KumoSFFReader.SFFV2_IMGTYPE_RLE8;
+		s.data = EncodeRLE8(s.idx);
+		byte lz5[] = EncodeLZ5(s.idx);
+		if(lz5 != null && lz5.length < s.data.length) {
+			s.type = KumoSFFReader.SFFV2_IMGTYPE_LZ5;
+			s.data = lz5;
+		}
+		if(UsePNG) {
+			byte png[] = EncodePNG(s);
+			if(png.length < s.data.length) {
+				s.type = KumoSFFReader.SFFV21_IMGTYPE_PNG8;
+				s.data = png;
+			}
+		}
+	}
+	
+	//Make file from encoded sprites
+	byte[] Build() throws IOException {
+		int nspr = sprites.size();
+		int npal = palettes.size();
+		int sproff = 512;
+		int paloff = sproff + nspr * 28;
+		int ldoff = paloff + npal * 16;
+		//ldata: palettes then sprites, linked ones have no data
+		ByteArrayOutputStream ld = new ByteArrayOutputStream();
+		int paldata[] = new int[npal];
+		for(int i = 0; i < npal; i++) {
+			Palette p = palettes.get(i);
+			if(p.link == -1) {
+				paldata[i] = ld.size();
+				ld.write(p.data);
+			}
+		}
+		int sprdata[] = new int[nspr];
+		for(int i = 0; i < nspr; i++) {
+			Sprite s = sprites.get(i);
+			if(s.link == -1) {
+				sprdata[i] = ld.size();
+				ld.write(s.data);
+			}
+		}
+		if( (long)ldoff + ld.size() > Integer.MAX_VALUE) {
+			throw new IOException("Sff is too big!");
+		}
+		byte hd[] = new byte[512];
+		byte id[] = {'E', 'l', 'e', 'c', 'b', 'y', 't', 'e', 'S', 'p', 'r', 0};
+		System.arraycopy(id, 0, hd, 0, id.length);
+		hd[12] = 0; //Version 2.0 or 2.1 (stored in reverse order)
+		hd[13] = (byte)(UsePNG ? 1 : 0);
+		hd[14] = 0;
+		hd[15] = 2;
+		Put(hd, 36, sproff, 4); //sprite table offset
+		Put(hd, 40, nspr, 4); //sprite count
+		Put(hd, 44, paloff, 4); //palette table offset
+		Put(hd, 48, npal, 4); //palette count
+		Put(hd, 52, ldoff, 4); //ldata offset
+		Put(hd, 56, ld.size(), 4); //ldata length
+		Put(hd, 60, ldoff + ld.size(), 4); //tdata offset (empty)
+		Put(hd, 64, 0, 4); //tdata length
+		ByteArrayOutputStream o = new ByteArrayOutputStream(ldoff + ld.size() );
+		o.write(hd);
+		byte rec[] = new byte[28];
+		for(int i = 0; i < nspr; i++) {
+			Sprite s = sprites.get(i);
+			Sprite d = s.link == -1 ? s : sprites.get(s.link);
+			Put(rec, 0, s.grp, 2);
+			Put(rec, 2, s.ino, 2);
+			Put(rec, 4, s.w, 2);
+			Put(rec, 6, s.h, 2);
+			Put(rec, 8, s.x, 2);
+			Put(rec, 10, s.y, 2);
+			Put(rec, 12, s.link == -1 ? 0 : s.link, 2); //link index
+			rec[14] = (byte)d.type;
+			rec[15] = (byte)d.depth;
+			Put(rec, 16, sprdata[s.link == -1 ? i : s.link], 4); //offset in ldata
+			Put(rec, 20, s.link == -1 ? s.data.length : 0, 4); //zero length: linked
+			Put(rec, 24, s.pal, 2);
+			Put(rec, 26, 0, 2); //flags: data is in ldata
+			o.write(rec);
+		}
+		rec = new byte[16];
+		for(int i = 0; i < npal; i++) {
+			Palette p = palettes.get(i);
+			Put(rec, 0, p.grp, 2);
+			Put(rec, 2, p.no, 2);
+			Put(rec, 4, p.data.length / 4, 2); //colour count
+			Put(rec, 6, p.link == -1 ? 0 : p.link, 2); //link index
+			Put(rec, 8, paldata[p.link == -1 ? i : p.link], 4); //offset in ldata
+			Put(rec, 12, p.link == -1 ? p.data.length : 0, 4); //zero length: linked
+			o.write(rec);
+		}
+		ld.writeTo(o);
+		return o.toByteArray();
+	}
+	
+	/**
+		Encode colour indexes to sffv2 RLE8 (uncompressed size, then packets).
+		@param idx colour indexes
+		@return encoded data
+	*/
+	public static byte[] EncodeRLE8(byte idx[]) {
+		ByteArrayOutputStream o = new ByteArrayOutputStream(idx.length / 2 + 16);
+		WriteSize(o, idx.length);
+		for(int i = 0; i < idx.length; ) {
+			int v = idx[i] & 0xff;
+			int n = 1;
+			while(i + n < idx.length && n < 63 && (idx[i + n] & 0xff) == v) {
+				n++;
+			}
+			//0b01xxxxxx is run length, so such colour needs run length 1
+			if(n > 1 || (v & 0xc0) == 0x40) {
+				o.write(0x40 | n);
+			}
+			o.write(v);
+			i += n;
+		}
+		return o.toByteArray();
+	}
+	
+	/**
+		Encode colour indexes to sffv2 LZ5 (uncompressed size, then packets).
+		LZ5 stores colour in 5 bits, so all indexes must be less than 32.
+		Greedy encoder, matches are searched with hash chain in 1024 octet window.
+		@param idx colour indexes
+		@return encoded data, null if there is index 32 or more
+	*/
+	public static byte[] EncodeLZ5(byte idx[]) {
+		int n = idx.length;
+		for(byte b : idx) {
+			if( (b & 0xff) >= 32) {
+				return null;
+			}
+		}
+		byte out[] = new byte[n + n / 8 + 16]; //Worst case: one RLE octet per pixel
+		int o = 0;
+		out[o++] = (byte)n;
+		out[o++] = (byte)(n >> 8);
+		out[o++] = (byte)(n >> 16);
+		out[o++] = (byte)(n >> 24);
+		int ctrlpos = 0;
+		int ctrlbit = 8;
+		int shorts = 0; //short LZ packets since last recycled distance
+		int head[] = new int[1 << 15];
+		int prev[] = new int[n];
+		Arrays.fill(head, -1);
+		for(int p = 0; p < n; ) {
+			//Longest same colour run
+			int run = 1;
+			while(p + run < n && run < 263 && idx[p + run] == idx[p]) {
+				run++;
+			}
+			//Longest match in window
+			int mlen = 0;
+			int mdist = 0;
+			if(p + 2 < n) {
+				int chain = 64;
+				for(int c = head[Hash3(idx, p)]; c >= 0 && p - c <= 1024 && chain-- > 0; c = prev[c]) {
+					int l = 0;
+					while(p + l < n && l < 258 && idx[c + l] == idx[p + l]) {
+						l++;
+					}
+					if(l > mlen) {
+						mlen = l;
+						mdist = p - c;
+					}
+				}
+			}
+			//Cost of LZ packet: 4th short packet distance comes from recycled bits (1 to 4 here)
+			boolean shortlz;
+			int lzcost;
+			if(shorts == 3) {
+				shortlz = mdist <= 4;
+			} else {
+				shortlz = mdist <= 256;
+			}
+			if(shortlz && mlen > 64) {
+				mlen = 64;
+			}
+			lzcost = shortlz ? (shorts == 3 ? 1 : 2) : 3;
+			int rlecost = run <= 7 ? 1 : 2;
+			if(ctrlbit == 8) {
+				ctrlpos = o++;
+				out[ctrlpos] = 0;
+				ctrlbit = 0;
+			}
+			int len;
+			if(mlen >= 3 && mlen * rlecost > run * lzcost) {
+				//LZ packet
+				out[ctrlpos] |= 1 << ctrlbit;
+				len = mlen;
+				if(shortlz) {
+					if(shorts == 3) {
+						out[o++] = (byte)( ( (mdist - 1) << 6) | (len - 1) );
+						shorts = 0;
+					} else {
+						out[o++] = (byte)(len - 1); //recycled bits are 0
+						out[o++] = (byte)(mdist - 1);
+						shorts++;
+					}
+				} else {
+					out[o++] = (byte)( ( (mdist - 1) >> 8) << 6);
+					out[o++] = (byte)(mdist - 1);
+					out[o++] = (byte)(len - 3);
+				}
+			} else {
+				//RLE packet
+				len = run;
+				if(len <= 7) {
+					out[o++] = (byte)( (len << 5) | idx[p]);
+				} else {
+					out[o++] = idx[p];
+					out[o++] = (byte)(len - 8);
+				}
+			}
+			ctrlbit++;
+			//Add covered positions to hash chain
+			for(int e = p + len; p < e; p++) {
+				if(p + 2 < n) {
+					int h = Hash3(idx, p);
+					prev[p] = head[h];
+					head[h] = p;
+				}
+			}
+		}
+		return Arrays.copyOf(out, o);
+	}
+	
+	//Hash of 3 colour indexes at p
+	static int Hash3(byte idx[], int p) {
+		int k = ( (idx[p] & 0xff) << 16) | ( (idx[p + 1] & 0xff) << 8) | (idx[p + 2] & 0xff);
+		return (k * 0x9e3779b1) >>> 17;
+	}
+	
+	//Encode sprite to PNG (uncompressed size, then PNG file)
+	//PLTE of PNG8 is zero filled like other sff tools, reader uses sff palette.
+	static byte[] EncodePNG(Sprite s) throws IOException {
+		BufferedImage img;
+		if(s.idx != null) {
+			byte zero[] = new byte[256];
+			img = new BufferedImage(s.w, s.h, BufferedImage.TYPE_BYTE_INDEXED,
+				new IndexColorModel(8, 256, zero, zero, zero) );
+			img.getRaster().setDataElements(0, 0, s.w, s.h, s.idx);
+		} else {
+			img = new BufferedImage(s.w, s.h,
+				s.depth == 24 ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+			img.setRGB(0, 0, s.w, s.h, s.argb, 0, s.w);
+		}
+		ByteArrayOutputStream o = new ByteArrayOutputStream();
+		WriteSize(o, s.w * s.h * (s.depth / 8) );
+		if(!ImageIO.write(img, "png", o) ) {
+			throw new IOException("No PNG writer!");
+		}
+		return o.toByteArray();
+	}
+	
+	//Put n octet little endian integer at b[offs]
+	static void Put(byte b[], int offs, int v, int n) {
+		for(int i = 0; i < n; i++) {
+			b[offs + i] = (byte)(v >> (8 * i) );
+		}
+	}
+	
+	//Write uint32_t uncompressed size
+	static void WriteSize(ByteArrayOutputStream o, int size) {
+		o.write(size);
+		o.write(size >> 8);
+		o.write(size >> 16);
+		o.write(size >> 24);
+	}
+}
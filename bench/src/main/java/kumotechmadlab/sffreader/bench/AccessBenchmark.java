@@ -0,0 +1,67 @@
+package kumotechmadlab.sffreader.bench;
+
+import java.io.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import kumotechmadlab.sffreader.*;
+
+/**
+	Raw data, palette and search access of sffv1 (PCX) and sffv2 (RLE8).
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccessBenchmark {
+	@Param({"PCX", "RLE8"})
+	public String format;
+	
+	@Param({"false", "true"})
+	public boolean mapped;
+	
+	static final int COUNT = 1000;
+	File file;
+	KumoSFFReader sff;
+	int next = 0;
+	
+	@Setup(Level.Trial)
+	public void Setup() throws IOException, SFFDecodeException {
+		file = SFFGen.WriteTemp(format, COUNT, 48, 48, 3);
+		sff = new KumoSFFReader(file, mapped);
+	}
+	
+	@TearDown(Level.Trial)
+	public void TearDown() {
+		sff.closeSFF();
+		file.delete();
+	}
+	
+	@Benchmark
+	public byte[] GetRawImage() throws IOException {
+		next = (next + 1) % COUNT;
+		return sff.GetRawImage(next);
+	}
+	
+	@Benchmark
+	public int[] GetPalette() throws IOException {
+		next = (next + 1) % COUNT;
+		if(sff.GetSFFVersion() == KumoSFFReader.SFF_V1) {
+			return sff.GetPalette(next);
+		}
+		return sff.SFFv2GetPalette(next % SFFGen.PALETTES);
+	}
+	
+	@Benchmark
+	public int FindIndexByNumbers() {
+		next = (next + 1) % COUNT;
+		return sff.FindIndexByNumbers(next / 10, next % 10);
+	}
+	
+	@Benchmark
+	public int[] ListIndexesByGroupNo() {
+		next = (next + 1) % COUNT;
+		return sff.ListIndexesByGroupNo(next / 10);
+	}
+}
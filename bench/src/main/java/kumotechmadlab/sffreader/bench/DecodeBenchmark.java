@@ -0,0 +1,50 @@
+package kumotechmadlab.sffreader.bench;
+
+import java.awt.image.*;
+import java.io.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import kumotechmadlab.sffreader.*;
+
+/**
+	ConvertImage() time per image format, one image per call (images are cycled).
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+	@Param({"PCX", "RAW8", "RAW24", "RAW32", "RLE8", "PNG8", "PNG24", "PNG32"})
+	public String format;
+	
+	@Param({"64", "256"})
+	public int size;
+	
+	@Param({"false", "true"})
+	public boolean mapped;
+	
+	static final int COUNT = 32;
+	File file;
+	KumoSFFReader sff;
+	int next = 0;
+	
+	@Setup(Level.Trial)
+	public void Setup() throws IOException, SFFDecodeException {
+		file = SFFGen.WriteTemp(format, COUNT, size, size, 2);
+		sff = new KumoSFFReader(file, mapped);
+	}
+	
+	@TearDown(Level.Trial)
+	public void TearDown() {
+		sff.closeSFF();
+		file.delete();
+	}
+	
+	@Benchmark
+	public BufferedImage ConvertImage() throws IOException, SFFDecodeException {
+		next = (next + 1) % COUNT;
+		return sff.ConvertImage(next);
+	}
+}
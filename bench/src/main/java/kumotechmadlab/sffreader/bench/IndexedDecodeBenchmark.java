@@ -0,0 +1,50 @@
+package kumotechmadlab.sffreader.bench;
+
+import java.awt.image.*;
+import java.io.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import kumotechmadlab.sffreader.*;
+
+/**
+	ConvertImageIndexed() time per indexed colour image format, one image per call (images are cycled).
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexedDecodeBenchmark {
+	@Param({"PCX", "RAW8", "RLE8", "PNG8"})
+	public String format;
+	
+	@Param({"64", "256"})
+	public int size;
+	
+	@Param({"false", "true"})
+	public boolean mapped;
+	
+	static final int COUNT = 32;
+	File file;
+	KumoSFFReader sff;
+	int next = 0;
+	
+	@Setup(Level.Trial)
+	public void Setup() throws IOException, SFFDecodeException {
+		file = SFFGen.WriteTemp(format, COUNT, size, size, 2);
+		sff = new KumoSFFReader(file, mapped);
+	}
+	
+	@TearDown(Level.Trial)
+	public void TearDown() {
+		sff.closeSFF();
+		file.delete();
+	}
+	
+	@Benchmark
+	public BufferedImage ConvertImageIndexed() throws IOException, SFFDecodeException {
+		next = (next + 1) % COUNT;
+		return sff.ConvertImageIndexed(next);
+	}
+}
@@ -0,0 +1,48 @@
+package kumotechmadlab.sffreader.bench;
+
+import java.io.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import kumotechmadlab.sffreader.*;
+
+/**
+	Open time of sff file (header and table parsing) of sffv1 (PCX) and sffv2 (RLE8).
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OpenBenchmark {
+	@Param({"PCX", "RLE8"})
+	public String format;
+	
+	@Param({"100", "2000"})
+	public int count;
+	
+	@Param({"false", "true"})
+	public boolean mapped;
+	
+	File file;
+	
+	@Setup(Level.Trial)
+	public void Setup() throws IOException {
+		file = SFFGen.WriteTemp(format, count, 16, 16, 1);
+	}
+	
+	@TearDown(Level.Trial)
+	public void TearDown() {
+		file.delete();
+	}
+	
+	@Benchmark
+	public int OpenFile() throws IOException, SFFDecodeException {
+		KumoSFFReader r = new KumoSFFReader(file, mapped);
+		try {
+			return r.GetImageCount();
+		} finally {
+			r.closeSFF();
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package kumotechmadlab.sffreader.bench;
+
+import java.io.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import kumotechmadlab.sffreader.*;
+
+/**
+	Open time of sff in memory (KumoSFFReader(byte[]) ), sffv1 (PCX) and sffv2 (RLE8).
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OpenMemoryBenchmark {
+	@Param({"PCX", "RLE8"})
+	public String format;
+	
+	@Param({"100", "2000"})
+	public int count;
+	
+	byte data[];
+	
+	@Setup(Level.Trial)
+	public void Setup() throws IOException {
+		data = SFFGen.Generate(format, count, 16, 16, 1);
+	}
+	
+	@Benchmark
+	public int OpenMemory() throws IOException, SFFDecodeException {
+		KumoSFFReader r = new KumoSFFReader(data);
+		return r.GetImageCount();
+	}
+}
@@ -0,0 +1,298 @@
+package kumotechmadlab.sffreader.bench;
+
+import java.io.*;
+import java.util.*;
+import java.awt.image.*;
+import javax.imageio.*;
+import kumotechmadlab.sffreader.*;
+
+/**
+	Deterministic synthetic sff generator for benchmarks.
+	Same parameters always make the same file, so benchmarks run without real (copyrighted) sff.
+	Images are runs of random colours, close to real sprites for RLE and PNG compression.
+	Format PCX makes sffv1, others make sffv2 (sffv2.1 for PNG), all images in one format.
+	Usage: java kumotechmadlab.sffreader.bench.SFFGen format count width height seed output
+*/
+public class SFFGen {
+	/** Formats, PCX is sffv1 */
+	public static final String FORMATS[] = {"PCX", "RAW8", "RAW24", "RAW32", "RLE8", "PNG8", "PNG24", "PNG32"};
+	/** Palette count of sffv2 */
+	public static final int PALETTES = 8;
+	
+	public static void main(String args[]) throws IOException {
+		if(args.length != 6) {
+			System.err.println("Usage: SFFGen format count width height seed output");
+			System.err.println("format: " + String.join(", ", FORMATS) );
+			System.exit(1);
+		}
+		byte d[] = Generate(args[0], Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+			Integer.parseInt(args[3]), Long.parseLong(args[4]) );
+		try(FileOutputStream f = new FileOutputStream(args[5]) ) {
+			f.write(d);
+		}
+	}
+	
+	/**
+		Generate sff and write it to temporary file, deleted on exit.
+		@return written file
+	*/
+	public static File WriteTemp(String format, int count, int w, int h, long seed) throws IOException {
+		File f = File.createTempFile("sffbench-" + format + "-", ".sff");
+		f.deleteOnExit();
+		try(FileOutputStream o = new FileOutputStream(f) ) {
+			o.write(Generate(format, count, w, h, seed) );
+		}
+		return f;
+	}
+	
+	/**
+		Generate sff. Image i has group number i / 10 and image number i % 10.
+		@param format one of FORMATS
+		@param count image count
+		@param w image width
+		@param h image height
+		@param seed random seed
+		@return sff data
+	*/
+	public static byte[] Generate(String format, int count, int w, int h, long seed) throws IOException {
+		Random r = new Random(seed);
+		if(format.equals("PCX") ) {
+			return V1(count, w, h, r);
+		}
+		return V2(format, count, w, h, r);
+	}
+	
+	//Runs of random colour index, bits is index bit count
+	static byte[] Index(int w, int h, int bits, Random r) {
+		byte b[] = new byte[w * h];
+		for(int i = 0; i < b.length; ) {
+			int n = 1 + r.nextInt(12);
+			byte v = (byte)r.nextInt(1 << bits);
+			for(int j = 0; j < n && i < b.length; j++) {
+				b[i++] = v;
+			}
+		}
+		return b;
+	}
+	
+	//Random RGB888 palette
+	static int[] Palette(Random r) {
+		int p[] = new int[256];
+		for(int i = 0; i < p.length; i++) {
+			p[i] = r.nextInt() & 0xffffff;
+		}
+		return p;
+	}
+	
+	//Write n octet little endian integer
+	static void LE(ByteArrayOutputStream o, long v, int n) {
+		for(int i = 0; i < n; i++) {
+			o.write( (int)(v >> (8 * i) ) & 0xff);
+		}
+	}
+	
+	//Put n octet little endian integer at b[offs]
+	static void Put(byte b[], int offs, long v, int n) {
+		for(int i = 0; i < n; i++) {
+			b[offs + i] = (byte)(v >> (8 * i) );
+		}
+	}
+	
+	//512 octet header having magic and version
+	static byte[] Header(int v0, int v1, int v2, int v3) {
+		byte hd[] = new byte[512];
+		byte id[] = {'E', 'l', 'e', 'c', 'b', 'y', 't', 'e', 'S', 'p', 'r', 0};
+		System.arraycopy(id, 0, hd, 0, id.length);
+		hd[12] = (byte)v0;
+		hd[13] = (byte)v1;
+		hd[14] = (byte)v2;
+		hd[15] = (byte)v3;
+		return hd;
+	}
+	
+	//sffv1, every other image uses shared palette
+	static byte[] V1(int count, int w, int h, Random r) throws IOException {
+		ByteArrayOutputStream o = new ByteArrayOutputStream();
+		byte hd[] = Header(0, 1, 0, 1);
+		Put(hd, 16, 1, 4); //group count
+		Put(hd, 20, count, 4); //image count
+		Put(hd, 24, 512, 4); //first subfile offset
+		Put(hd, 28, 32, 4); //subheader size
+		o.write(hd);
+		for(int i = 0; i < count; i++) {
+			boolean shared = i % 2 == 1;
+			byte data[] = PCX(w, h, Index(w, h, 8, r), shared ? null : Palette(r) );
+			int next = i == count - 1 ? 0 : o.size() + 32 + data.length;
+			LE(o, next, 4);
+			LE(o, data.length, 4);
+			LE(o, w / 2, 2); //center x
+			LE(o, h, 2); //center y
+			LE(o, i / 10, 2);
+			LE(o, i % 10, 2);
+			LE(o, 0, 2); //link
+			o.write(shared ? 1 : 0);
+			o.write(new byte[13]);
+			o.write(data);
+		}
+		return o.toByteArray();
+	}
+	
+	//8 bit PCX, palette is appended if pal is not null
+	static byte[] PCX(int w, int h, byte idx[], int pal[]) {
+		ByteArrayOutputStream o = new ByteArrayOutputStream();
+		byte hd[] = new byte[128];
+		hd[0] = 10; //manufacturer
+		hd[1] = 5; //version
+		hd[2] = 1; //RLE
+		hd[3] = 8; //bits per pixel
+		Put(hd, 8, w - 1, 2); //xmax
+		Put(hd, 10, h - 1, 2); //ymax
+		hd[65] = 1; //planes
+		int scanline = w + (w & 1); //scanline is even
+		Put(hd, 66, scanline, 2);
+		o.write(hd, 0, hd.length);
+		for(int y = 0; y < h; y++) {
+			for(int x = 0; x < scanline; ) {
+				int v = x < w ? idx[y * w + x] & 0xff : 0;
+				int n = 1;
+				while(x + n < scanline && n < 63 && (x + n < w ? idx[y * w + x + n] & 0xff : 0) == v) {
+					n++;
+				}
+				if(n > 1 || v >= 0xc0) {
+					o.write(0xc0 + n);
+				}
+				o.write(v);
+				x += n;
+			}
+		}
+		if(pal != null) {
+			o.write(12);
+			for(int c : pal) {
+				o.write( (c >> 16) & 0xff);
+				o.write( (c >> 8) & 0xff);
+				o.write(c & 0xff);
+			}
+		}
+		return o.toByteArray();
+	}
+	
+	//sffv2 (v2.1 for PNG), all images in one format
+	static byte[] V2(String format, int count, int w, int h, Random r) throws IOException {
+		int type;
+		int depth;
+		switch(format) {
+			case "RAW8": type = 0; depth = 8; break;
+			case "RAW24": type = 0; depth = 24; break;
+			case "RAW32": type = 0; depth = 32; break;
+			case "RLE8": type = 2; depth = 8; break;
+			case "PNG8": type = 10; depth = 8; break;
+			case "PNG24": type = 11; depth = 24; break;
+			case "PNG32": type = 12; depth = 32; break;
+			default: throw new IllegalArgumentException("Unknown format " + format);
+		}
+		ByteArrayOutputStream ld = new ByteArrayOutputStream(); //ldata
+		int paloffs[] = new int[PALETTES];
+		for(int p = 0; p < PALETTES; p++) {
+			paloffs[p] = ld.size();
+			for(int c : Palette(r) ) {
+				LE(ld, Integer.reverseBytes(c << 8), 4); //R, G, B, 0
+			}
+		}
+		int sproffs[] = new int[count];
+		int sprlens[] = new int[count];
+		for(int i = 0; i < count; i++) {
+			byte data[] = V2Image(type, depth, w, h, r);
+			sproffs[i] = ld.size();
+			sprlens[i] = data.length;
+			ld.write(data);
+		}
+		int sproff = 512;
+		int paloff = sproff + count * 28;
+		int ldoff = paloff + PALETTES * 16;
+		byte hd[] = type >= 10 ? Header(0, 1, 0, 2) : Header(0, 0, 0, 2);
+		Put(hd, 36, sproff, 4);
+		Put(hd, 40, count, 4);
+		Put(hd, 44, paloff, 4);
+		Put(hd, 48, PALETTES, 4);
+		Put(hd, 52, ldoff, 4);
+		Put(hd, 56, ld.size(), 4);
+		Put(hd, 60, ldoff + ld.size(), 4); //tdata (empty)
+		ByteArrayOutputStream o = new ByteArrayOutputStream();
+		o.write(hd);
+		for(int i = 0; i < count; i++) {
+			LE(o, i / 10, 2);
+			LE(o, i % 10, 2);
+			LE(o, w, 2);
+			LE(o, h, 2);
+			LE(o, w / 2, 2); //center x
+			LE(o, h, 2); //center y
+			LE(o, 0, 2); //link
+			o.write(type);
+			o.write(depth);
+			LE(o, sproffs[i], 4);
+			LE(o, sprlens[i], 4);
+			LE(o, i % PALETTES, 2);
+			LE(o, 0, 2); //flags: ldata
+		}
+		for(int p = 0; p < PALETTES; p++) {
+			LE(o, 1, 2);
+			LE(o, p, 2);
+			LE(o, 256, 2);
+			LE(o, 0, 2); //link
+			LE(o, paloffs[p], 4);
+			LE(o, 1024, 4);
+		}
+		o.write(ld.toByteArray() );
+		return o.toByteArray();
+	}
+	
+	//Image data of sffv2 sprite
+	static byte[] V2Image(int type, int depth, int w, int h, Random r) throws IOException {
+		if(type == 0 && depth == 8) {
+			return Index(w, h, 8, r);
+		}
+		if(type == 0) {
+			//Runs of random pixels
+			int bpp = depth / 8;
+			byte d[] = new byte[w * h * bpp];
+			for(int i = 0; i < d.length; ) {
+				int n = 1 + r.nextInt(12);
+				byte px[] = new byte[bpp];
+				r.nextBytes(px);
+				for(int j = 0; j < n && i < d.length; j++, i += bpp) {
+					System.arraycopy(px, 0, d, i, bpp);
+				}
+			}
+			return d;
+		}
+		if(type == 2) {
+			return SFFWriter.EncodeRLE8(Index(w, h, 8, r) );
+		}
+		BufferedImage b;
+		if(type == 10) {
+			byte cm[] = new byte[256];
+			b = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_INDEXED,
+				new IndexColorModel(8, 256, cm, cm, cm) );
+			byte idx[] = Index(w, h, 8, r);
+			byte px[] = ( (DataBufferByte)b.getRaster().getDataBuffer() ).getData();
+			System.arraycopy(idx, 0, px, 0, idx.length);
+		} else {
+			b = new BufferedImage(w, h, type == 11 ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+			int px[] = ( (DataBufferInt)b.getRaster().getDataBuffer() ).getData();
+			for(int i = 0; i < px.length; ) {
+				int n = 1 + r.nextInt(12);
+				int c = r.nextInt();
+				for(int j = 0; j < n && i < px.length; j++) {
+					px[i++] = c;
+				}
+			}
+		}
+		ByteArrayOutputStream o = new ByteArrayOutputStream();
+		ImageIO.write(b, "png", o);
+		byte png[] = o.toByteArray();
+		byte d[] = new byte[png.length + 4]; //uint32_t size then PNG
+		Put(d, 0, png.length, 4);
+		System.arraycopy(png, 0, d, 4, png.length);
+		return d;
+	}
+}